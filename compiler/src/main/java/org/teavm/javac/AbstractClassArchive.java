@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public abstract class AbstractClassArchive implements ClassArchive {
+    protected final ByteSource data;
+    private int readCount;
+
+    protected AbstractClassArchive(ByteSource data) {
+        this.data = data;
+    }
+
+    @Override
+    public int getReadCount() {
+        return readCount;
+    }
+
+    @Override
+    public void resetReadCount() {
+        readCount = 0;
+    }
+
+    protected byte[] readStored(int offset, int size) {
+        readCount++;
+        byte[] result = new byte[size];
+        data.copy(offset, result, 0, size);
+        return result;
+    }
+
+    protected byte[] readDeflated(String name, int offset, int compressedSize, int size) throws IOException {
+        readCount++;
+        // Inflater in nowrap mode may need one extra byte past the end of compressed data
+        byte[] compressed = new byte[compressedSize + 1];
+        data.copy(offset, compressed, 0, compressedSize);
+        byte[] result = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            inflater.inflate(result);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted data of " + name + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return result;
+    }
+
+    protected int readUnsignedByte(int offset) {
+        return data.get(offset) & 0xFF;
+    }
+
+    protected String readString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        data.copy(offset, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
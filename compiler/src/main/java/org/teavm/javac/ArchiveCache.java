@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.util.function.Consumer;
+
+/**
+ * Keeps downloaded archives in storage under their content hash. Only the latest version of each archive
+ * is kept: storing an archive removes entries with other hashes of the same name, so that upgrades don't leave
+ * stale multi-megabyte entries behind.
+ */
+public class ArchiveCache<V> {
+    private static final String PREFIX = "archive:";
+
+    private KeyValueStorage<V> storage;
+
+    public ArchiveCache(KeyValueStorage<V> storage) {
+        this.storage = storage;
+    }
+
+    static String getKey(String name, String hash) {
+        return PREFIX + name + ":" + hash;
+    }
+
+    public void get(String name, String hash, Consumer<V> callback) {
+        storage.get(getKey(name, hash), callback);
+    }
+
+    public void put(String name, String hash, V value) {
+        String key = getKey(name, hash);
+        storage.put(key, value);
+        String namePrefix = PREFIX + name + ":";
+        storage.keys(keys -> {
+            for (String existingKey : keys) {
+                if (existingKey.startsWith(namePrefix) && !existingKey.equals(key)) {
+                    storage.remove(existingKey);
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes an entry that turned out to be broken, so that next load downloads it again.
+     */
+    public void invalidate(String name, String hash) {
+        storage.remove(getKey(name, hash));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardLocation;
+
+public class ArchiveFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+    private ClassArchive archive;
+    private Map<String, List<JavaFileObject>> packages = new HashMap<>();
+
+    public ArchiveFileManager(JavaFileManager fileManager, ClassArchive archive) {
+        super(fileManager);
+        this.archive = archive;
+        for (String name : archive.getEntryNames()) {
+            if (!name.endsWith(".class")) {
+                continue;
+            }
+            int index = name.lastIndexOf('/');
+            String packageName = index >= 0 ? name.substring(0, index).replace('/', '.') : "";
+            packages.computeIfAbsent(packageName, k -> new ArrayList<>()).add(new ArchiveClassFile(name));
+        }
+    }
+
+    @Override
+    public boolean hasLocation(Location location) {
+        return location == StandardLocation.PLATFORM_CLASS_PATH || super.hasLocation(location);
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds,
+            boolean recurse) throws IOException {
+        if (location != StandardLocation.PLATFORM_CLASS_PATH) {
+            return super.list(location, packageName, kinds, recurse);
+        }
+        if (!kinds.contains(JavaFileObject.Kind.CLASS)) {
+            return Collections.emptyList();
+        }
+        if (!recurse) {
+            List<JavaFileObject> files = packages.get(packageName);
+            return files != null ? Collections.unmodifiableList(files) : Collections.emptyList();
+        }
+
+        List<JavaFileObject> result = new ArrayList<>();
+        String prefix = packageName + ".";
+        for (Map.Entry<String, List<JavaFileObject>> entry : packages.entrySet()) {
+            String name = entry.getKey();
+            if (packageName.isEmpty() || name.equals(packageName) || name.startsWith(prefix)) {
+                result.addAll(entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+        if (file instanceof ArchiveClassFile) {
+            return ((ArchiveClassFile) file).binaryName;
+        }
+        return super.inferBinaryName(location, file);
+    }
+
+    @Override
+    public boolean isSameFile(FileObject a, FileObject b) {
+        if (a instanceof ArchiveClassFile || b instanceof ArchiveClassFile) {
+            return a == b;
+        }
+        return super.isSameFile(a, b);
+    }
+
+    class ArchiveClassFile extends SimpleJavaFileObject {
+        private String entryName;
+        private String binaryName;
+
+        ArchiveClassFile(String entryName) {
+            super(URI.create("archive:///" + entryName), Kind.CLASS);
+            this.entryName = entryName;
+            binaryName = entryName.substring(0, entryName.length() - Kind.CLASS.extension.length())
+                    .replace('/', '.');
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            byte[] data = archive.read(entryName);
+            if (data == null) {
+                throw new IOException("Class file not found in archive: " + entryName);
+            }
+            return new ByteArrayInputStream(data);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.teavm.parsing.resource.ResourceReader;
+
+public class ArchiveResourceReader implements ResourceReader {
+    private ClassArchive archive;
+
+    public ArchiveResourceReader(ClassArchive archive) {
+        this.archive = archive;
+    }
+
+    @Override
+    public boolean hasResource(String name) {
+        return archive.contains(name);
+    }
+
+    @Override
+    public InputStream openResource(String name) throws IOException {
+        byte[] data = archive.read(name);
+        return data != null ? new ByteArrayInputStream(data) : null;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.io.ByteArrayOutputStream;
+import org.teavm.jso.JSBody;
+import org.teavm.jso.JSByRef;
+import org.teavm.jso.typedarrays.ArrayBuffer;
+
+public class ArrayBufferOutputStream extends ByteArrayOutputStream {
+    public ArrayBufferOutputStream() {
+    }
+
+    public ArrayBufferOutputStream(int size) {
+        super(size);
+    }
+
+    public ArrayBuffer toArrayBuffer() {
+        return toArrayBuffer(buf, count);
+    }
+
+    @JSBody(params = { "data", "length" }, script = "return new Int8Array(data.subarray(0, length)).buffer;")
+    static native ArrayBuffer toArrayBuffer(@JSByRef byte[] data, int length);
+}
@@ -0,0 +1,52 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import org.teavm.jso.JSBody;
+import org.teavm.jso.JSByRef;
+import org.teavm.jso.typedarrays.ArrayBuffer;
+import org.teavm.jso.typedarrays.Int8Array;
+
+public class ArrayBufferSource implements ByteSource {
+    private ArrayBuffer buffer;
+    private Int8Array array;
+
+    public ArrayBufferSource(ArrayBuffer buffer) {
+        this.buffer = buffer;
+        array = Int8Array.create(buffer);
+    }
+
+    @Override
+    public int length() {
+        return array.getLength();
+    }
+
+    @Override
+    public byte get(int offset) {
+        return array.get(offset);
+    }
+
+    @Override
+    public void copy(int offset, byte[] target, int targetOffset, int length) {
+        copy(buffer, offset, target, targetOffset, length);
+    }
+
+    @JSBody(params = { "source", "offset", "target", "targetOffset", "length" },
+            script = "target.set(new Int8Array(source, offset, length), targetOffset);")
+    private static native void copy(ArrayBuffer source, int offset, @JSByRef byte[] target, int targetOffset,
+            int length);
+}
@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.util.List;
+import java.util.function.Consumer;
+import org.teavm.jso.typedarrays.ArrayBuffer;
+
+/**
+ * Exposes storage of {@link ArrayBuffer}s as storage of byte arrays, so that code that stores binary data
+ * doesn't depend on JavaScript types.
+ */
+public class ArrayBufferStorageAdapter implements KeyValueStorage<byte[]> {
+    private KeyValueStorage<ArrayBuffer> storage;
+
+    public ArrayBufferStorageAdapter(KeyValueStorage<ArrayBuffer> storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public void get(String key, Consumer<byte[]> callback) {
+        storage.get(key, data -> {
+            if (data == null) {
+                callback.accept(null);
+                return;
+            }
+            ArrayBufferSource source = new ArrayBufferSource(data);
+            byte[] bytes = new byte[source.length()];
+            source.copy(0, bytes, 0, bytes.length);
+            callback.accept(bytes);
+        });
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        storage.put(key, ArrayBufferOutputStream.toArrayBuffer(value, value.length));
+    }
+
+    @Override
+    public void remove(String key) {
+        storage.remove(key);
+    }
+
+    @Override
+    public void keys(Consumer<List<String>> callback) {
+        storage.keys(callback);
+    }
+}
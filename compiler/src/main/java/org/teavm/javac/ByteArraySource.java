@@ -0,0 +1,40 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+public class ByteArraySource implements ByteSource {
+    private byte[] data;
+
+    public ByteArraySource(byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public int length() {
+        return data.length;
+    }
+
+    @Override
+    public byte get(int offset) {
+        return data[offset];
+    }
+
+    @Override
+    public void copy(int offset, byte[] target, int targetOffset, int length) {
+        System.arraycopy(data, offset, target, targetOffset, length);
+    }
+}
@@ -14,11 +14,12 @@
  *  limitations under the License.
  */
 
-package org.teavm.javac.ui;
+package org.teavm.javac;
 
-import org.teavm.jso.JSProperty;
+public interface ByteSource {
+    int length();
 
-public interface FrameStdoutCommand extends FrameCommand {
-    @JSProperty
-    String getLine();
+    byte get(int offset);
+
+    void copy(int offset, byte[] target, int targetOffset, int length);
 }
@@ -0,0 +1,36 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.io.IOException;
+import java.util.Collection;
+
+public interface ClassArchive {
+    Collection<String> getEntryNames();
+
+    boolean contains(String name);
+
+    byte[] read(String name) throws IOException;
+
+    int getReadCount();
+
+    void resetReadCount();
+
+    static ClassArchive open(ByteSource data) throws IOException {
+        return PackedClassArchive.isPacked(data) ? new PackedClassArchive(data) : new ZipClassArchive(data);
+    }
+}
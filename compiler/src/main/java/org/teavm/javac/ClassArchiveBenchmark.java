@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Compares transfer size of class archives and the cost of reading them with the same readers the worker uses,
+ * run on the JVM. Timings of the readers compiled to JavaScript are logged by the worker itself, when it reports
+ * how long it took to fetch and index an archive.
+ */
+public final class ClassArchiveBenchmark {
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int ITERATIONS = 20;
+
+    private ClassArchiveBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.out.println(String.format("%-40s %12s %12s %10s %10s %10s", "archive", "size", "gzip size",
+                "stream ms", "index ms", "read ms"));
+        for (String arg : args) {
+            File file = new File(arg);
+            byte[] data;
+            try (InputStream input = new FileInputStream(file)) {
+                data = ClassArchiveWriter.readFully(input);
+            }
+            benchmark(file.getName(), data);
+        }
+    }
+
+    private static void benchmark(String name, byte[] data) throws IOException {
+        ByteSource source = new ByteArraySource(data);
+        boolean packed = PackedClassArchive.isPacked(source);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+            if (!packed) {
+                streamAll(data);
+            }
+            readAll(ClassArchive.open(source));
+        }
+
+        long streamTime = 0;
+        long indexTime = 0;
+        long readTime = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            long start = System.nanoTime();
+            if (!packed) {
+                streamAll(data);
+            }
+            long indexStart = System.nanoTime();
+            ClassArchive archive = ClassArchive.open(source);
+            long readStart = System.nanoTime();
+            readAll(archive);
+            long end = System.nanoTime();
+            streamTime += indexStart - start;
+            indexTime += readStart - indexStart;
+            readTime += end - readStart;
+        }
+
+        System.out.println(String.format("%-40s %12d %12d %10s %10.2f %10.2f", name, data.length, gzipSize(data),
+                packed ? "-" : String.format("%.2f", millis(streamTime)), millis(indexTime), millis(readTime)));
+    }
+
+    private static void streamAll(byte[] data) throws IOException {
+        byte[] buffer = new byte[4096];
+        try (ZipInputStream input = new ZipInputStream(new ByteArrayInputStream(data))) {
+            while (true) {
+                ZipEntry entry = input.getNextEntry();
+                if (entry == null) {
+                    break;
+                }
+                while (input.read(buffer) >= 0) {
+                    // consume entry
+                }
+            }
+        }
+    }
+
+    private static void readAll(ClassArchive archive) throws IOException {
+        for (String entryName : archive.getEntryNames()) {
+            archive.read(entryName);
+        }
+    }
+
+    private static int gzipSize(byte[] data) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(data);
+        }
+        return output.size();
+    }
+
+    private static double millis(long totalNanos) {
+        return totalNanos / (ITERATIONS * 1_000_000.0);
+    }
+}
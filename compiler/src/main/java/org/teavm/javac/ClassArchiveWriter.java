@@ -0,0 +1,159 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class ClassArchiveWriter {
+    private Map<String, byte[]> entries = new TreeMap<>();
+    public void add(String name, byte[] data) {
+        entries.put(name, data);
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    public void write(OutputStream output) throws IOException {
+        Map<String, Integer> stringIndexes = new LinkedHashMap<>();
+        List<int[]> records = new ArrayList<>();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            String name = entry.getKey();
+            int separator = name.lastIndexOf('/');
+            int directory = stringIndex(stringIndexes, separator >= 0 ? name.substring(0, separator) : "");
+            int simpleName = stringIndex(stringIndexes, name.substring(separator + 1));
+
+            byte[] data = entry.getValue();
+            records.add(new int[] { directory, simpleName, PackedClassArchive.STORED, content.size(), data.length,
+                    data.length });
+            content.write(data);
+        }
+
+        ByteArrayOutputStream stringTable = new ByteArrayOutputStream();
+        DataOutputStream strings = new DataOutputStream(stringTable);
+        for (String string : stringIndexes.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            strings.writeShort(bytes.length);
+            strings.write(bytes);
+        }
+
+        DataOutputStream data = new DataOutputStream(output);
+        data.writeInt(PackedClassArchive.MAGIC);
+        data.writeByte(PackedClassArchive.VERSION);
+        data.writeByte(0);
+        data.writeShort(0);
+        data.writeInt(stringIndexes.size());
+        data.writeInt(records.size());
+        data.writeInt(stringTable.size());
+        stringTable.writeTo(data);
+        for (int[] record : records) {
+            for (int field : record) {
+                data.writeInt(field);
+            }
+        }
+        content.writeTo(data);
+        data.flush();
+    }
+
+    private static int stringIndex(Map<String, Integer> indexes, String string) {
+        return indexes.computeIfAbsent(string, s -> indexes.size());
+    }
+
+    public void addAll(File input) throws IOException {
+        if (input.isDirectory()) {
+            addDirectory(input, "");
+        } else {
+            addZip(input);
+        }
+    }
+
+    private void addZip(File inputFile) throws IOException {
+        try (ZipInputStream input = new ZipInputStream(new FileInputStream(inputFile))) {
+            while (true) {
+                ZipEntry entry = input.getNextEntry();
+                if (entry == null) {
+                    break;
+                }
+                if (!entry.isDirectory()) {
+                    add(entry.getName(), readFully(input));
+                }
+            }
+        }
+    }
+
+    private void addDirectory(File dir, String prefix) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addDirectory(file, prefix + file.getName() + "/");
+            } else {
+                try (InputStream input = new FileInputStream(file)) {
+                    add(prefix + file.getName(), readFully(input));
+                }
+            }
+        }
+    }
+
+    static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        while (true) {
+            int bytesRead = input.read(buffer);
+            if (bytesRead < 0) {
+                break;
+            }
+            output.write(buffer, 0, bytesRead);
+        }
+        return output.toByteArray();
+    }
+
+    public static void main(String[] args) throws IOException {
+        File inputFile = new File(args.length > 0 ? args[0] : "classlib.zip");
+        File outputFile = new File(args.length > 1 ? args[1] : "classlib.pack");
+        if (outputFile.getParentFile() != null) {
+            outputFile.getParentFile().mkdirs();
+        }
+
+        long start = System.currentTimeMillis();
+        ClassArchiveWriter writer = new ClassArchiveWriter();
+        writer.addAll(inputFile);
+        try (OutputStream output = new FileOutputStream(outputFile)) {
+            writer.write(output);
+        }
+        System.out.println("Packed " + writer.getEntryCount() + " entries from " + inputFile + " to " + outputFile
+                + " (" + outputFile.length() + " bytes) in " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
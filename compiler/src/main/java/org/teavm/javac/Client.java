@@ -17,29 +17,27 @@
 package org.teavm.javac;
 
 import com.sun.tools.javac.api.JavacTool;
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import javax.tools.DiagnosticListener;
 import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
 import javax.tools.StandardJavaFileManager;
 import org.objectweb.asm.ClassReader;
@@ -48,10 +46,9 @@ import org.teavm.backend.javascript.JavaScriptTarget;
 import org.teavm.classlib.impl.JCLPlugin;
 import org.teavm.diagnostics.Problem;
 import org.teavm.diagnostics.ProblemSeverity;
-import org.teavm.javac.protocol.CompilableObject;
+import org.teavm.interop.Async;
 import org.teavm.javac.protocol.CompilationResultMessage;
 import org.teavm.javac.protocol.CompileMessage;
-import org.teavm.javac.protocol.CompilerDiagnosticMessage;
 import org.teavm.javac.protocol.ErrorMessage;
 import org.teavm.javac.protocol.LoadStdlibMessage;
 import org.teavm.javac.protocol.TeaVMDiagnosticMessage;
@@ -61,15 +58,19 @@ import org.teavm.jso.JSBody;
 import org.teavm.jso.JSObject;
 import org.teavm.jso.ajax.XMLHttpRequest;
 import org.teavm.jso.browser.Window;
+import org.teavm.jso.core.JSArray;
 import org.teavm.jso.dom.events.MessageEvent;
 import org.teavm.jso.impl.JSOPlugin;
 import org.teavm.jso.typedarrays.ArrayBuffer;
-import org.teavm.jso.typedarrays.Int8Array;
 import org.teavm.model.ClassHolderSource;
 import org.teavm.model.MethodReference;
 import org.teavm.model.ValueType;
+import org.teavm.parsing.ClasspathResourceMapper;
 import org.teavm.parsing.CompositeClassHolderSource;
 import org.teavm.parsing.DirectoryClasspathClassHolderSource;
+import org.teavm.parsing.resource.MapperClassHolderSource;
+import org.teavm.parsing.resource.ResourceClassHolderMapper;
+import org.teavm.platform.async.AsyncCallback;
 import org.teavm.platform.plugin.PlatformPlugin;
 import org.teavm.vm.TeaVM;
 import org.teavm.vm.TeaVMBuilder;
@@ -78,9 +79,22 @@ import org.teavm.vm.TeaVMProgressFeedback;
 import org.teavm.vm.TeaVMProgressListener;
 
 public final class Client {
-    private static boolean isBusy;
+    private static boolean initialized;
+    private static Map<String, CompileMessage> pendingRequests = new LinkedHashMap<>();
+    private static CompileMessage currentCompilation;
+    private static boolean compilationCancelled;
+    private static boolean compilerThreadRunning;
     private static final String SOURCE_FILE_NAME = "Main.java";
+    private static final String RESULT_FILE_NAME = "classes.js";
+    private static final String CONVERTED_STDLIB_NAME = "converted-stdlib";
+    private static final String STDLIB_PACKAGE = "java";
+    private static final String STDLIB_PACKAGE_PREFIX = "org.teavm.classlib";
+    private static final String STDLIB_CLASS_PREFIX = "T";
+    // Bump when the worker starts producing different script or diagnostics for the same source and options
+    private static final int OUTPUT_VERSION = 1;
     private static String mainClass;
+    private static MainClassCollector mainClassCollector;
+    private static String[] mainClassCandidates;
 
     private Client() {
     }
@@ -108,45 +122,300 @@ public final class Client {
     private static void processResponse(WorkerMessage request) throws Exception {
         log("Message received: " + request.getId());
 
-        if (isBusy) {
-            log("Responded busy status");
-            Window.worker().postMessage(createErrorResponse(request, "Busy"));
-            return;
-        }
-
-        isBusy = true;
         switch (request.getCommand()) {
-            case "load-classlib":
-                init(request, ((LoadStdlibMessage) request).getUrl(), success -> {
+            case "load-classlib": {
+                LoadStdlibMessage loadStdlib = (LoadStdlibMessage) request;
+                init(request, loadStdlib.getUrl(), loadStdlib.getStubsUrl(), loadStdlib.isLazy(), success -> {
                     if (success) {
-                        respondOk(request);
+                        long sessionStart = (long) loadStdlib.getSessionStart();
+                        initCompilationCache(loadStdlib.getCompilationCacheSize(), sessionStart, () -> {
+                            initialized = true;
+                            respondOk(request);
+                            scheduleCompilation();
+                        });
                     }
-                    isBusy = false;
                 });
                 break;
+            }
             case "compile":
-                compileAll((CompileMessage) request);
-                log("Done processing message: " + request.getId());
-                isBusy = false;
+            case "check":
+                enqueueCompilation((CompileMessage) request);
+                break;
+            case "cancel":
+                // Carries id of the request to cancel, which is answered with "cancelled" status
+                cancelCompilation(request.getId());
                 break;
         }
     }
 
+    private static void cancelCompilation(String id) {
+        for (Iterator<CompileMessage> iter = pendingRequests.values().iterator(); iter.hasNext();) {
+            CompileMessage pending = iter.next();
+            if (pending.getId().equals(id)) {
+                iter.remove();
+                log("Request " + id + " cancelled before it started");
+                respondCompilationStatus(pending, "cancelled");
+                return;
+            }
+        }
+        if (currentCompilation != null && currentCompilation.getId().equals(id) && !compilationCancelled) {
+            log("Cancelling request " + id);
+            compilationCancelled = true;
+        }
+    }
+
+    private static void enqueueCompilation(CompileMessage request) {
+        CompileMessage replaced = pendingRequests.put(request.getCommand(), request);
+        if (replaced != null) {
+            // Page normally cancels superseded requests itself, but the replaced one must not stay unanswered
+            log("Request " + replaced.getId() + " replaced by " + request.getId());
+            respondCompilationStatus(replaced, "cancelled");
+        }
+        scheduleCompilation();
+    }
+
+    private static void scheduleCompilation() {
+        if (!initialized || compilerThreadRunning || pendingRequests.isEmpty()) {
+            return;
+        }
+        compilerThreadRunning = true;
+        new Thread(() -> {
+            while (!pendingRequests.isEmpty()) {
+                // Explicit compilation goes first, as the user is waiting for its result
+                String command = pendingRequests.containsKey("compile")
+                        ? "compile"
+                        : pendingRequests.keySet().iterator().next();
+                CompileMessage request = pendingRequests.remove(command);
+                currentCompilation = request;
+                compilationCancelled = false;
+                try {
+                    if (command.equals("check")) {
+                        checkAll(request);
+                    } else {
+                        compileAll(request);
+                    }
+                } catch (Throwable e) {
+                    log("Error occurred");
+                    e.printStackTrace();
+                    Window.worker().postMessage(createErrorResponse(request, "Error occurred processing message: "
+                            + e.getMessage()));
+                }
+                currentCompilation = null;
+                log("Done processing message: " + request.getId());
+            }
+            compilerThreadRunning = false;
+        }).start();
+    }
+
+    private static boolean isCancelled() {
+        // Let the worker receive messages that arrived in the meantime, any newer compile request cancels this one
+        yieldControl();
+        return compilationCancelled;
+    }
+
+    @Async
+    private static native void yieldControl();
+
+    private static void yieldControl(AsyncCallback<Void> callback) {
+        Window.setTimeout(() -> callback.complete(null), 0);
+    }
+
+    private static void respondCompilationStatus(CompileMessage request, String status) {
+        CompilationResultMessage response = createMessage();
+        response.setId(request.getId());
+        response.setCommand(request.getCommand().equals("check") ? "check-complete" : "compilation-complete");
+        response.setStatus(status);
+        Window.worker().postMessage(response);
+    }
+
+    private static void checkAll(CompileMessage request) throws IOException {
+        if (isCancelled()) {
+            respondCompilationStatus(request, "cancelled");
+            return;
+        }
+        CompilerSession session = getLintSession();
+        String status = runJavac(request, session, lintFileManager, true) ? "successful" : "errors";
+        CompilationResultMessage response = createMessage();
+        response.setId(request.getId());
+        response.setCommand("check-complete");
+        response.setStatus(status);
+        response.setJavacTime((int) lastJavacTime);
+        response.setAnalysisTime((int) lastAnalysisTime);
+        Window.worker().postMessage(response);
+    }
+
     private static void compileAll(CompileMessage request) throws IOException {
-        createSourceFile(request.getText());
+        mainClassCandidates = null;
+        String cacheKey = CompilationCache.createKey(request.getText(), getCompilationOptions(request));
+        if (compilationCache != null) {
+            CompilationCache.Entry cached = getCachedCompilation(cacheKey, request.getText());
+            if (cached != null) {
+                respondFromCache(request, cacheKey, cached);
+                return;
+            }
+        }
+
+        if (stubsArchive != null) {
+            stubsArchive.resetReadCount();
+            classlibArchive.resetReadCount();
+        }
+
+        MemoryBuildTarget buildTarget = new MemoryBuildTarget();
+
+        JSArray<JSObject> diagnostics = compilationCache != null ? JSArray.create() : null;
+        recordedDiagnostics = diagnostics;
+        lastJavacTime = 0;
+        lastAnalysisTime = 0;
+        String status;
+        try {
+            status = compile(request, buildTarget);
+        } finally {
+            recordedDiagnostics = null;
+        }
 
         CompilationResultMessage response = createMessage();
         response.setId(request.getId());
         response.setCommand("compilation-complete");
+        response.setStatus(status);
+        response.setJavacTime((int) lastJavacTime);
+        response.setAnalysisTime((int) lastAnalysisTime);
+        response.setMainClasses(mainClassCandidates);
+        ArrayBuffer scriptBuffer = null;
+        if (status.equals("successful")) {
+            response.setScriptKey(cacheKey);
+            if (request.isBinaryScript()) {
+                scriptBuffer = readResultingBuffer(buildTarget);
+                response.setScriptBuffer(scriptBuffer);
+            } else {
+                response.setScript(readResultingFile(buildTarget));
+            }
+        } else if (status.equals("cancelled")) {
+            log("Compilation " + request.getId() + " cancelled");
+        }
 
-        if (doCompile(request) && detectMainClass(request) && generateJavaScript(request)) {
-            response.setStatus("successful");
-            response.setScript(readResultingFile());
+        if (compilationCache != null && !status.equals("cancelled")) {
+            byte[] script = status.equals("successful") ? buildTarget.getResource(RESULT_FILE_NAME) : null;
+            compilationCache.put(cacheKey, new CompilationCache.Entry(request.getText(), status,
+                    stringify(diagnostics), script, mainClassCandidates));
+        }
+
+        if (scriptBuffer != null) {
+            postMessage(response, scriptBuffer);
         } else {
-            response.setStatus("errors");
+            Window.worker().postMessage(response);
         }
 
-        Window.worker().postMessage(response);
+        if (stubsArchive != null) {
+            log("Classes materialized: " + stubsArchive.getReadCount() + " stubs for javac, "
+                    + classlibArchive.getReadCount() + " classes for TeaVM");
+        }
+    }
+
+    private static void initCompilationCache(int size, long sessionStart, Runnable next) {
+        if (size <= 0) {
+            next.run();
+            return;
+        }
+        KeyValueStorage<byte[]> cacheStorage;
+        if (classlibHash != null) {
+            cacheStorage = new ArrayBufferStorageAdapter(storage);
+        } else {
+            // Stored results can't be matched against classlib version, so they are kept for this session only
+            log("Classlib hash is unknown, compilation results won't be cached across page loads");
+            cacheStorage = new MemoryStorage<>();
+        }
+        compilationCache = new CompilationCache(cacheStorage, size);
+        compilationCache.restore(sessionStart, () -> {
+            log("Compilation cache restored, " + compilationCache.getSize() + " bytes");
+            next.run();
+        });
+    }
+
+    private static String getCompilationOptions(CompileMessage request) {
+        // Results depend on TeaVM classlib as well, since it's compiled into the script
+        return "version=" + OUTPUT_VERSION + ";maxDiagnostics=" + request.getMaxDiagnostics()
+                + ";mainClass=" + request.getMainClass() + ";classlib=" + classlibHash;
+    }
+
+    @Async
+    private static native CompilationCache.Entry getCachedCompilation(String key, String source);
+
+    private static void getCachedCompilation(String key, String source,
+            AsyncCallback<CompilationCache.Entry> callback) {
+        compilationCache.get(key, source, callback::complete);
+    }
+
+    private static void respondFromCache(CompileMessage request, String key, CompilationCache.Entry entry) {
+        log("Compilation " + request.getId() + " served from cache (" + compilationCache.getHitCount() + " hits, "
+                + compilationCache.getMissCount() + " misses)");
+        JSArray<WorkerMessage> messages = parse(entry.getDiagnostics());
+        for (int i = 0; i < messages.getLength(); ++i) {
+            WorkerMessage message = messages.get(i);
+            message.setId(request.getId());
+            Window.worker().postMessage(message);
+        }
+
+        CompilationResultMessage response = createMessage();
+        response.setId(request.getId());
+        response.setCommand("compilation-complete");
+        response.setStatus(entry.getStatus());
+        response.setCached(true);
+        response.setMainClasses(entry.getMainClasses());
+        byte[] script = entry.getScript();
+        if (script == null) {
+            Window.worker().postMessage(response);
+            return;
+        }
+        response.setScriptKey(key);
+        if (request.isBinaryScript()) {
+            ArrayBuffer scriptBuffer = ArrayBufferOutputStream.toArrayBuffer(script, script.length);
+            response.setScriptBuffer(scriptBuffer);
+            postMessage(response, scriptBuffer);
+        } else {
+            response.setScript(new String(script, StandardCharsets.UTF_8));
+            Window.worker().postMessage(response);
+        }
+    }
+
+    /**
+     * Posts diagnostic message to UI and records it, so that a cached compilation can replay it.
+     */
+    static void postDiagnostic(JSObject message) {
+        Window.worker().postMessage(message);
+        if (recordedDiagnostics != null) {
+            recordedDiagnostics.push(message);
+        }
+    }
+
+    @JSBody(params = "value", script = "return JSON.stringify(value);")
+    private static native String stringify(JSObject value);
+
+    @JSBody(params = "text", script = "return JSON.parse(text);")
+    private static native <T extends JSObject> JSArray<T> parse(String text);
+
+    /**
+     * Cancellation requests are only received at {@link #isCancelled()} checkpoints, before javac and before TeaVM.
+     * TeaVM build can't be interrupted: yielding from its progress listener would make every TeaVM method that
+     * reports progress asynchronous, so once started, the build runs to completion.
+     */
+    private static String compile(CompileMessage request, MemoryBuildTarget buildTarget) throws IOException {
+        if (isCancelled()) {
+            return "cancelled";
+        }
+        CompilerSession session = getCompilerSession();
+        if (!runJavac(request, session, memoryFileManager, false)) {
+            return "errors";
+        }
+        if (isCancelled()) {
+            return "cancelled";
+        }
+        if (!detectMainClass(request)) {
+            return "errors";
+        }
+        if (!generateJavaScript(request, buildTarget)) {
+            return "errors";
+        }
+        return "successful";
     }
 
     private static void respondOk(WorkerMessage message) {
@@ -167,122 +436,272 @@ public final class Client {
     @JSBody(script = "return {};")
     static native <T extends JSObject> T createMessage();
 
-    private static void init(WorkerMessage request, String url, Consumer<Boolean> next) {
+    private static void init(WorkerMessage request, String url, String stubsUrl, boolean lazy,
+            Consumer<Boolean> next) {
         log("Initializing");
 
         initializationStartTime = System.currentTimeMillis();
-        loadTeaVMClasslib(request, url, success -> {
-            if (success) {
-                try {
-                    createStdlib();
-                } catch (IOException e) {
-                    Window.worker().postMessage(createErrorResponse(request, "Error creating stdlib: "
-                            + e.getMessage()));
-                    log("Error initializing stdlib: " + e.getMessage());
-                    success = false;
-                }
+        IndexedDBStorage.open("teavm-javac", persistentStorage -> {
+            if (persistentStorage != null) {
+                storage = persistentStorage;
+                archiveCache = new ArchiveCache<>(storage);
+            } else {
+                log("Persistent storage is not available, classlib won't be cached across page loads");
+            }
+            if (lazy && stubsUrl != null) {
+                initLazy(request, url, stubsUrl, next);
+            } else {
+                initEager(request, url, stubsUrl, next);
+            }
+        });
+    }
 
-                if (success) {
-                    long end = System.currentTimeMillis();
-                    log("Initialized in " + (end - initializationStartTime) + " ms");
-                }
+    private static void initEager(WorkerMessage request, String url, String stubsUrl, Consumer<Boolean> next) {
+        loadTeaVMClasslib(request, url, success -> {
+            if (!success) {
+                next.accept(false);
+                return;
+            }
+            stdlibClassSource = new DirectoryClasspathClassHolderSource(new File("/teavm-stdlib"),
+                    createStdlibMapping());
+            System.setProperty("sun.boot.class.path", "/stdlib");
+            if (stubsUrl != null) {
+                loadStdlibStubs(request, stubsUrl, stubsLoaded -> completeInit(stubsLoaded, next));
+            } else {
+                createStdlib(request, converted -> completeInit(converted, next));
             }
-            next.accept(success);
         });
     }
 
-    private static boolean doCompile(WorkerMessage request) throws IOException {
-        JavaCompiler compiler = JavacTool.create();
-        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
-        Iterable<? extends JavaFileObject> compilationUnits = fileManager.getJavaFileObjectsFromFiles(
-                Arrays.asList(new File("/" + SOURCE_FILE_NAME)));
-        OutputStreamWriter out = new OutputStreamWriter(System.out);
+    private static void initLazy(WorkerMessage request, String url, String stubsUrl, Consumer<Boolean> next) {
+        openArchive(request, url, "classlib", (classlib, hash) -> {
+            if (classlib == null) {
+                next.accept(false);
+                return;
+            }
+            classlibHash = hash;
+            openArchive(request, stubsUrl, "stdlib stubs", (stubs, stubsHash) -> {
+                if (stubs == null) {
+                    next.accept(false);
+                    return;
+                }
+                classlibArchive = classlib;
+                stubsArchive = stubs;
+                stdlibClassSource = new MapperClassHolderSource(new ClasspathResourceMapper(createStdlibMapping(),
+                        new ResourceClassHolderMapper(new ArchiveResourceReader(classlib))));
+                completeInit(true, next);
+            });
+        });
+    }
 
-        File outDir = new File("/out");
-        if (outDir.exists()) {
-            removeDirectory(outDir);
+    private static void completeInit(boolean success, Consumer<Boolean> next) {
+        if (success) {
+            long end = System.currentTimeMillis();
+            log("Initialized in " + (end - initializationStartTime) + " ms");
         }
-        new File("/out").mkdirs();
-        JavaCompiler.CompilationTask task = compiler.getTask(out, fileManager, createDiagnosticListener(request),
-                Arrays.asList("-verbose", "-d", "/out", "-Xlint:all"), null, compilationUnits);
-        boolean result = task.call();
-        out.flush();
-
-        return result;
+        next.accept(success);
     }
 
-    private static DiagnosticListener<? super JavaFileObject> createDiagnosticListener(WorkerMessage request) {
-        return diagnostic -> {
-            CompilerDiagnosticMessage response = createMessage();
-            response.setCommand("compiler-diagnostic");
-            response.setId(request.getId());
-
-            response.setKind(diagnostic.getKind().name());
+    /**
+     * Runs javac either in compile session, which has no lint checks and gets the program to TeaVM as soon
+     * as possible, or, when only analyzing, in lint session, which reports all warnings. Sessions have separate
+     * contexts, as options can't change during session's lifetime.
+     */
+    private static CompilerSession getLintSession() {
+        if (lintSession == null) {
+            lintFileManager = createMemoryFileManager();
+            lintSession = new CompilerSession(lintFileManager, LINT_OPTIONS, new OutputStreamWriter(System.out));
+        }
+        return lintSession;
+    }
 
-            CompilableObject object = createMessage();
-            object.setKind(diagnostic.getSource().getKind().name());
-            object.setName(diagnostic.getSource().getName());
-            response.setObject(object);
+    private static CompilerSession getCompilerSession() {
+        if (compilerSession == null) {
+            memoryFileManager = createMemoryFileManager();
+            compilerSession = new CompilerSession(memoryFileManager, COMPILE_OPTIONS,
+                    new OutputStreamWriter(System.out));
+        }
+        return compilerSession;
+    }
 
-            response.setStartPosition((int) diagnostic.getStartPosition());
-            response.setPosition((int) diagnostic.getPosition());
-            response.setEndPosition((int) diagnostic.getEndPosition());
+    /**
+     * @param session session that determines javac options, either lint or compiler one.
+     * @param fileManager file manager the session was created with.
+     * @param analyzeOnly whether javac stops after analysis instead of generating class files.
+     */
+    private static boolean runJavac(CompileMessage request, CompilerSession session, MemoryFileManager fileManager,
+            boolean analyzeOnly) throws IOException {
+        lastJavacTime = 0;
+        lastAnalysisTime = 0;
+        boolean warm = session.getCompilationCount() > 0;
+        fileManager.clear();
+        JavaFileObject source = fileManager.addSource(SOURCE_FILE_NAME, request.getText());
+
+        DiagnosticBatcher diagnostics = new DiagnosticBatcher(request, request.getMaxDiagnostics());
+        long start = System.currentTimeMillis();
+        boolean result;
+        try {
+            if (analyzeOnly) {
+                result = session.analyze(source, diagnostics, diagnostics);
+            } else {
+                mainClassCollector = new MainClassCollector(diagnostics);
+                result = session.compile(source, diagnostics, mainClassCollector);
+            }
+        } catch (RuntimeException | Error e) {
+            disposeSession(session);
+            throw e;
+        } finally {
+            diagnostics.finish();
+        }
+        long time = System.currentTimeMillis() - start;
+        lastJavacTime = time;
+        lastAnalysisTime = session.getAnalysisTime();
+        if (diagnostics.getSuppressedCount() > 0) {
+            log(diagnostics.getReportedCount() + " diagnostics reported, " + diagnostics.getSuppressedCount()
+                    + " suppressed");
+        }
+        if (analyzeOnly) {
+            log("javac analysis pass complete in " + time + " ms, analysis took " + lastAnalysisTime + " ms");
+        } else if (warm) {
+            log("javac (warm) complete in " + time + " ms, analysis took " + lastAnalysisTime
+                    + " ms, cold compilation took " + coldCompileTime + " ms");
+        } else {
+            coldCompileTime = time;
+            log("javac (cold) complete in " + time + " ms, analysis took " + lastAnalysisTime + " ms");
+        }
 
-            response.setLineNumber((int) diagnostic.getColumnNumber());
-            response.setColumnNumber((int) diagnostic.getColumnNumber());
+        if (!session.isReusable()) {
+            disposeSession(session);
+        }
+        return result;
+    }
 
-            response.setCode(diagnostic.getCode());
-            response.setMessage(diagnostic.getMessage(Locale.getDefault()));
+    private static void disposeSession(CompilerSession session) {
+        if (session == lintSession) {
+            lintSession = null;
+        } else if (session == compilerSession) {
+            compilerSession = null;
+        }
+    }
 
-            Window.worker().postMessage(response);
-        };
+    private static MemoryFileManager createMemoryFileManager() {
+        JavaCompiler compiler = JavacTool.create();
+        StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(null, null, null);
+        JavaFileManager fileManager = stubsArchive != null
+                ? new ArchiveFileManager(standardFileManager, stubsArchive)
+                : standardFileManager;
+        return new MemoryFileManager(fileManager);
     }
 
     private static long lastPhaseTime = System.currentTimeMillis();
     private static TeaVMPhase lastPhase;
     private static ClassHolderSource stdlibClassSource;
+    private static ClassArchive classlibArchive;
+    private static ClassArchive stubsArchive;
+    private static final List<String> COMPILE_OPTIONS = Arrays.asList("-proc:none");
+    private static final List<String> LINT_OPTIONS = Arrays.asList("-Xlint:all", "-proc:none");
+    private static CompilerSession compilerSession;
+    private static MemoryFileManager memoryFileManager;
+    private static CompilerSession lintSession;
+    private static MemoryFileManager lintFileManager;
+    private static long lastJavacTime;
+    private static long lastAnalysisTime;
+    private static StdlibProgramCache programCache = new StdlibProgramCache(Client::isStdlibClass);
+    private static StdlibMethodNodeCache astCache = new StdlibMethodNodeCache(Client::isStdlibClass);
+    private static long coldCompileTime;
+    private static KeyValueStorage<ArrayBuffer> storage = new MemoryStorage<>();
+    private static ArchiveCache<ArrayBuffer> archiveCache = new ArchiveCache<>(storage);
+    private static String classlibHash;
+    private static CompilationCache compilationCache;
+    private static JSArray<JSObject> recordedDiagnostics;
+
+    private static boolean isStdlibClass(String className) {
+        // Classes generated by TeaVM (e.g. for lambdas) are absent in stdlib and may carry user code.
+        // Only look at the index, loading the class from stdlibClassSource would materialize it in lazy mode.
+        if (className.startsWith(STDLIB_PACKAGE + ".")) {
+            int index = className.lastIndexOf('.');
+            String mappedName = STDLIB_PACKAGE_PREFIX + "." + className.substring(0, index) + "."
+                    + STDLIB_CLASS_PREFIX + className.substring(index + 1);
+            if (hasStdlibResource(mappedName)) {
+                return true;
+            }
+        }
+        return hasStdlibResource(className);
+    }
 
-    static {
-        Properties stdlibMapping = new Properties();
-        stdlibMapping.setProperty("packagePrefix.java", "org.teavm.classlib");
-        stdlibMapping.setProperty("classPrefix.java", "T");
+    private static boolean hasStdlibResource(String className) {
+        String resourceName = className.replace('.', '/') + ".class";
+        return classlibArchive != null
+                ? classlibArchive.contains(resourceName)
+                : new File("/teavm-stdlib", resourceName).exists();
+    }
 
-        stdlibClassSource = new DirectoryClasspathClassHolderSource(new File("/teavm-stdlib"), stdlibMapping);
+    private static Properties createStdlibMapping() {
+        Properties stdlibMapping = new Properties();
+        stdlibMapping.setProperty("packagePrefix." + STDLIB_PACKAGE, STDLIB_PACKAGE_PREFIX);
+        stdlibMapping.setProperty("classPrefix." + STDLIB_PACKAGE, STDLIB_CLASS_PREFIX);
+        return stdlibMapping;
     }
 
-    private static boolean detectMainClass(WorkerMessage request) throws IOException {
-        Set<String> candidates = new HashSet<>();
-        detectMainClass(new File("/out"), candidates);
+    private static boolean detectMainClass(CompileMessage request) {
+        Set<String> candidates = mainClassCollector != null
+                ? new TreeSet<>(mainClassCollector.getMainClasses())
+                : new TreeSet<>();
+        if (candidates.isEmpty()) {
+            // javac reported no main methods from attributed classes, double-check generated class files
+            for (byte[] classFile : memoryFileManager.getClasses().values()) {
+                MainMethodFinder finder = new MainMethodFinder();
+                new ClassReader(classFile).accept(finder, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG);
+                if (finder.className != null && finder.hasMainMethod) {
+                    candidates.add(finder.className.replace('/', '.'));
+                }
+            }
+        }
+        mainClassCandidates = candidates.toArray(new String[candidates.size()]);
+
+        String requestedClass = request.getMainClass();
+        if (requestedClass != null && candidates.contains(requestedClass)) {
+            mainClass = requestedClass;
+            return true;
+        }
         if (candidates.size() != 1) {
-            String text = candidates.isEmpty() ? "Main method not found" : "Multiple main methods found";
+            String text = candidates.isEmpty()
+                    ? "Main method not found"
+                    : "Multiple main methods found, choose main class to run";
             TeaVMDiagnosticMessage message = createMessage();
             message.setId(request.getId());
             message.setCommand("diagnostic");
             message.setSeverity("ERROR");
             message.setText(text);
             message.setFileName(null);
-            Window.worker().postMessage(message);
+            postDiagnostic(message);
             return false;
         }
 
         mainClass = candidates.iterator().next();
-        mainClass = mainClass.replace('/', '.');
         return true;
     }
 
-    private static boolean generateJavaScript(WorkerMessage request) {
+    private static boolean generateJavaScript(CompileMessage request, MemoryBuildTarget buildTarget) {
         try {
             long start = System.currentTimeMillis();
 
+            programCache.resetStatistics();
+            astCache.resetStatistics();
+
             List<ClassHolderSource> classSources = new ArrayList<>();
             classSources.add(stdlibClassSource);
-            classSources.add(new DirectoryClasspathClassHolderSource(new File("/out")));
+            classSources.add(new MapperClassHolderSource(new ClasspathResourceMapper(new Properties(),
+                    new ResourceClassHolderMapper(new MemoryResourceReader(memoryFileManager.getClasses())))));
 
             JavaScriptTarget jsTarget = new JavaScriptTarget();
             jsTarget.setMinifying(false);
+            jsTarget.setAstCache(astCache);
             TeaVM teavm = new TeaVMBuilder(jsTarget)
                     .setClassSource(new CompositeClassHolderSource(classSources))
                     .build();
+            teavm.setIncremental(true);
+            teavm.setProgramCache(programCache);
 
             long pluginInstallationStart = System.currentTimeMillis();
             new JSOPlugin().install(teavm);
@@ -293,8 +712,6 @@ public final class Client {
             teavm.entryPoint("main", new MethodReference(mainClass, "main", ValueType.parse(String[].class),
                     ValueType.VOID))
                     .withArrayValue(1, "java.lang.String");
-            File outDir = new File("/js-out");
-            outDir.mkdirs();
 
             log("TeaVM initialized in " + (System.currentTimeMillis() - start) + " ms");
 
@@ -325,7 +742,7 @@ public final class Client {
                 log(lastPhase.name() + ": " + (System.currentTimeMillis() - lastPhaseTime) + " ms");
             }
 
-            teavm.build(outDir, "classes.js");
+            teavm.build(buildTarget, RESULT_FILE_NAME);
             boolean hasSevere = false;
             for (Problem problem : teavm.getProblemProvider().getProblems()) {
                 if (problem.getSeverity() == ProblemSeverity.ERROR) {
@@ -336,6 +753,9 @@ public final class Client {
 
             long end = System.currentTimeMillis();
             log("TeaVM complete in " + (end - start) + " ms");
+            log("Program cache: " + programCache.getHitCount() + " hits, " + programCache.getMissCount()
+                    + " misses; AST cache: " + astCache.getHitCount() + " hits, " + astCache.getMissCount()
+                    + " misses");
 
             return !hasSevere;
         } catch (RuntimeException e) {
@@ -353,29 +773,113 @@ public final class Client {
     }
 
     private static void loadTeaVMClasslib(WorkerMessage request, String url, Consumer<Boolean> next) {
-        File baseDir = new File("/teavm-stdlib");
+        loadArchive(request, url, new File("/teavm-stdlib"), "classlib", (success, hash) -> {
+            classlibHash = hash;
+            next.accept(success);
+        });
+    }
+
+    private static void openArchive(WorkerMessage request, String url, String description,
+            BiConsumer<ClassArchive, String> next) {
+        long start = System.currentTimeMillis();
+        fetchArchive(url, (data, hash) -> {
+            long downloaded = System.currentTimeMillis();
+            ClassArchive archive;
+            try {
+                if (data == null) {
+                    throw new IOException("server did not return " + url);
+                }
+                archive = ClassArchive.open(new ArrayBufferSource(data));
+                log("Fetched " + description + " in " + (downloaded - start) + " ms, indexed "
+                        + archive.getEntryNames().size() + " entries in "
+                        + (System.currentTimeMillis() - downloaded) + " ms");
+            } catch (IOException e) {
+                archive = null;
+                invalidateArchive(url, hash);
+                Window.worker().postMessage(createErrorResponse(request, "Error occurred downloading "
+                        + description + ": " + e.getMessage()));
+            }
+            next.accept(archive, hash);
+        });
+    }
+
+    private static void loadStdlibStubs(WorkerMessage request, String url, Consumer<Boolean> next) {
+        loadArchive(request, url, new File("/stdlib"), "stdlib stubs", (success, hash) -> next.accept(success));
+    }
+
+    private static void loadArchive(WorkerMessage request, String url, File baseDir, String description,
+            BiConsumer<Boolean, String> next) {
         baseDir.mkdirs();
 
-        downloadFile(url, data -> {
+        long start = System.currentTimeMillis();
+        fetchArchive(url, (data, hash) -> {
+            long downloaded = System.currentTimeMillis();
             boolean success;
-            try (ZipInputStream input = new ZipInputStream(new ByteArrayInputStream(data))) {
-                unzip(input, baseDir);
+            try {
+                if (data == null) {
+                    throw new IOException("server did not return " + url);
+                }
+                extract(ClassArchive.open(new ArrayBufferSource(data)), baseDir);
                 success = true;
+                log("Fetched " + description + " in " + (downloaded - start) + " ms, unpacked in "
+                        + (System.currentTimeMillis() - downloaded) + " ms");
             } catch (IOException e) {
                 success = false;
-                Window.worker().postMessage(createErrorResponse(request, "Error occurred downloading classlib: "
-                        + e.getMessage()));
+                invalidateArchive(url, hash);
+                Window.worker().postMessage(createErrorResponse(request, "Error occurred downloading "
+                        + description + ": " + e.getMessage()));
             }
-            next.accept(success);
+            next.accept(success, hash);
         });
     }
 
-    private static void createStdlib() throws IOException {
-        System.setProperty("sun.boot.class.path", "/stdlib");
+    private static void createStdlib(WorkerMessage request, Consumer<Boolean> next) {
+        if (classlibHash == null) {
+            next.accept(convertStdlib(request));
+            return;
+        }
+
+        // Converted classes depend both on classlib and on conversion rules
+        String hash = StdlibConverter.VERSION + "-" + classlibHash;
+        long start = System.currentTimeMillis();
+        archiveCache.get(CONVERTED_STDLIB_NAME, hash, cached -> {
+            if (cached != null) {
+                try {
+                    extract(ClassArchive.open(new ArrayBufferSource(cached)), new File("/stdlib"));
+                    log("Converted stdlib restored from cache in " + (System.currentTimeMillis() - start) + " ms");
+                    next.accept(true);
+                    return;
+                } catch (IOException e) {
+                    log("Error restoring converted stdlib from cache: " + e.getMessage());
+                    archiveCache.invalidate(CONVERTED_STDLIB_NAME, hash);
+                }
+            }
+
+            boolean success = convertStdlib(request);
+            if (success) {
+                try {
+                    archiveCache.put(CONVERTED_STDLIB_NAME, hash, packDirectory(new File("/stdlib")));
+                } catch (IOException e) {
+                    log("Error caching converted stdlib: " + e.getMessage());
+                }
+            }
+            next.accept(success);
+        });
+    }
 
+    private static boolean convertStdlib(WorkerMessage request) {
+        long start = System.currentTimeMillis();
         File baseDir = new File("/stdlib");
         baseDir.mkdirs();
-        traverseStdlib(new File("/teavm-stdlib"), baseDir, ".");
+        try {
+            traverseStdlib(new File("/teavm-stdlib"), baseDir, ".");
+        } catch (IOException e) {
+            Window.worker().postMessage(createErrorResponse(request, "Error creating stdlib: " + e.getMessage()));
+            log("Error initializing stdlib: " + e.getMessage());
+            return false;
+        }
+        log("Stdlib converted in " + (System.currentTimeMillis() - start) + " ms");
+        return true;
     }
 
     private static void traverseStdlib(File sourceDir, File destDir, String path) throws IOException {
@@ -409,106 +913,101 @@ public final class Client {
         }
     }
 
-    private static void unzip(ZipInputStream input, File toDir) throws IOException {
-        while (true) {
-            ZipEntry entry = input.getNextEntry();
-            if (entry == null) {
-                break;
-            }
-            if (entry.isDirectory()) {
-                continue;
-            }
-
-            File outputFile = new File(toDir, entry.getName());
+    private static void extract(ClassArchive archive, File toDir) throws IOException {
+        for (String name : archive.getEntryNames()) {
+            File outputFile = new File(toDir, name);
             outputFile.getParentFile().mkdirs();
             try (OutputStream output = new FileOutputStream(outputFile)) {
-                copy(input, output);
+                output.write(archive.read(name));
             }
         }
     }
 
-    private static void copy(InputStream input, OutputStream output) throws IOException {
-        byte[] buffer = new byte[1024];
-        while (true) {
-            int bytesRead = input.read(buffer);
-            if (bytesRead < 0) {
-                break;
-            }
-            output.write(buffer, 0, bytesRead);
-        }
+    private static ArrayBuffer packDirectory(File dir) throws IOException {
+        ClassArchiveWriter writer = new ClassArchiveWriter();
+        writer.addAll(dir);
+        ArrayBufferOutputStream buffer = new ArrayBufferOutputStream();
+        writer.write(buffer);
+        return buffer.toArrayBuffer();
     }
 
-    private static void downloadFile(String url, Consumer<byte[]> callback) {
-        XMLHttpRequest xhr = XMLHttpRequest.create();
-        xhr.open("GET", url, true);
-        xhr.setResponseType("arraybuffer");
-        xhr.onComplete(() -> {
-            ArrayBuffer buffer = (ArrayBuffer) xhr.getResponse();
-            Int8Array jsArray = Int8Array.create(buffer);
-            byte[] array = new byte[jsArray.getLength()];
-            for (int i = 0; i < array.length; ++i) {
-                array[i] = jsArray.get(i);
+    private static void fetchArchive(String url, BiConsumer<ArrayBuffer, String> callback) {
+        downloadText(url + ".sha1", hashText -> {
+            String hash = hashText != null ? hashText.trim() : "";
+            int separatorIndex = hash.indexOf(' ');
+            if (separatorIndex >= 0) {
+                hash = hash.substring(0, separatorIndex);
+            }
+            if (hash.isEmpty()) {
+                downloadFile(url, data -> callback.accept(data, null));
+                return;
             }
-            callback.accept(array);
+
+            String archiveHash = hash;
+            archiveCache.get(url, archiveHash, cached -> {
+                if (cached != null) {
+                    log("Restored " + url + " from cache");
+                    callback.accept(cached, archiveHash);
+                    return;
+                }
+                downloadFile(url, data -> {
+                    if (data != null) {
+                        archiveCache.put(url, archiveHash, data);
+                    }
+                    callback.accept(data, archiveHash);
+                });
+            });
         });
-        xhr.send();
     }
 
-    private static void createSourceFile(String content) throws IOException {
-        File file = new File("/" + SOURCE_FILE_NAME);
-
-        try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
-            writer.write(content);
+    private static void invalidateArchive(String url, String hash) {
+        if (hash != null) {
+            archiveCache.invalidate(url, hash);
         }
     }
 
-    private static void removeDirectory(File dir) {
-        for (File file : dir.listFiles()) {
-            if (file.isDirectory()) {
-                removeDirectory(file);
-            } else {
-                file.delete();
-            }
-        }
-        dir.delete();
+    private static void downloadText(String url, Consumer<String> callback) {
+        XMLHttpRequest xhr = XMLHttpRequest.create();
+        xhr.open("GET", url, true);
+        xhr.onComplete(() -> callback.accept(xhr.getStatus() == 200 ? xhr.getResponseText() : null));
+        xhr.send();
     }
 
-    private static void detectMainClass(File dir, Set<String> mainClasses) throws IOException {
-        for (File file : dir.listFiles()) {
-            if (file.isDirectory()) {
-                detectMainClass(file, mainClasses);
-            } else if (file.getName().endsWith(".class")) {
-                MainMethodFinder finder = new MainMethodFinder();
-                try (InputStream input = new FileInputStream(file)) {
-                    ClassReader reader = new ClassReader(input);
-                    reader.accept(finder, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG);
-                }
-                if (finder.className != null && finder.hasMainMethod) {
-                    mainClasses.add(finder.className);
-                }
-            }
-        }
+    private static void downloadFile(String url, Consumer<ArrayBuffer> callback) {
+        XMLHttpRequest xhr = XMLHttpRequest.create();
+        xhr.open("GET", url, true);
+        xhr.setResponseType("arraybuffer");
+        // Error pages must not get into cache under a valid hash
+        xhr.onComplete(() -> callback.accept(xhr.getStatus() == 200 ? (ArrayBuffer) xhr.getResponse() : null));
+        xhr.send();
     }
 
     private static void log(String message) {
         System.out.println(message);
     }
 
-    private static String readResultingFile() throws IOException {
-        File jsFile = new File("/js-out/classes.js");
-        if (!jsFile.exists()) {
+    private static ArrayBuffer readResultingBuffer(MemoryBuildTarget buildTarget) {
+        long start = System.currentTimeMillis();
+        ArrayBuffer buffer = buildTarget.getResourceBuffer(RESULT_FILE_NAME);
+        if (buffer == null) {
             return null;
         }
-        StringBuilder sb = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(jsFile), "UTF-8"))) {
-            while (true) {
-                String line = reader.readLine();
-                if (line == null) {
-                    break;
-                }
-                sb.append(line).append('\n');
-            }
+        log("Script of " + buffer.getByteLength() + " bytes extracted as binary in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return buffer;
+    }
+
+    @JSBody(params = { "message", "transfer" }, script = "self.postMessage(message, [transfer]);")
+    private static native void postMessage(JSObject message, ArrayBuffer transfer);
+
+    private static String readResultingFile(MemoryBuildTarget buildTarget) {
+        long start = System.currentTimeMillis();
+        byte[] data = buildTarget.getResource(RESULT_FILE_NAME);
+        if (data == null) {
+            return null;
         }
-        return sb.toString();
+        String script = new String(data, StandardCharsets.UTF_8);
+        log("Script of " + data.length + " bytes extracted in " + (System.currentTimeMillis() - start) + " ms");
+        return script;
     }
 }
@@ -0,0 +1,410 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * <p>LRU cache of compilation results, keyed by hash of source text and compiler options. Each entry keeps
+ * the source itself, so a hash collision can't return a wrong result. The total size of entries is limited
+ * by a byte budget.</p>
+ *
+ * <p>Entries are also written to {@link KeyValueStorage}, so that they survive page reloads. Keys and sizes
+ * of stored entries are kept in a separate index, this way the budget applies to stored entries as well.
+ * After restoring the index, stored entries are read lazily, on the first hit.</p>
+ *
+ * <p>Several workers may share the same storage. Each of them merges the stored index into its own before
+ * writing it, so that entries of other workers are kept. Two workers can still write the index at the same
+ * moment, then entries that got lost from the index are removed from storage by a later session. Stored entries
+ * carry their write time in the storage key, so that a restoring cache never removes entries that workers
+ * of the current session may still be adding to the index.</p>
+ */
+public class CompilationCache {
+    static final String ENTRY_PREFIX = "compilation:";
+    static final String INDEX_KEY = "compilation-index";
+    static final int FORMAT_VERSION = 4;
+
+    private KeyValueStorage<byte[]> storage;
+    private long budget;
+    private long size;
+    private Map<String, Slot> slots = new LinkedHashMap<>(16, 0.75f, true);
+    private Set<String> removedKeys = new HashSet<>();
+    private int hitCount;
+    private int missCount;
+
+    public CompilationCache(KeyValueStorage<byte[]> storage, long budget) {
+        this.storage = storage;
+        this.budget = budget;
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public int getMissCount() {
+        return missCount;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public static String createKey(String source, String options) {
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, options);
+        hash = hash(hash, "\0");
+        hash = hash(hash, source);
+        return Long.toHexString(hash) + "-" + source.length();
+    }
+
+    private static long hash(long hash, String text) {
+        for (int i = 0; i < text.length(); ++i) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public void get(String key, String source, Consumer<Entry> callback) {
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            missCount++;
+            callback.accept(null);
+            return;
+        }
+        if (slot.entry != null) {
+            callback.accept(checkSource(slot.entry, source));
+            return;
+        }
+
+        storage.get(getStorageKey(key, slot.time), data -> {
+            Entry entry = null;
+            if (data != null) {
+                try {
+                    entry = Entry.deserialize(data);
+                } catch (IOException e) {
+                    entry = null;
+                }
+            }
+            if (entry == null) {
+                removeSlot(key);
+                missCount++;
+                callback.accept(null);
+                return;
+            }
+            slot.entry = entry;
+            callback.accept(checkSource(entry, source));
+        });
+    }
+
+    private Entry checkSource(Entry entry, String source) {
+        if (!entry.source.equals(source)) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry;
+    }
+
+    public void put(String key, Entry entry) {
+        int entrySize = entry.size();
+        if (entrySize > budget) {
+            return;
+        }
+        Slot slot = new Slot();
+        slot.size = entrySize;
+        slot.time = System.currentTimeMillis();
+        slot.entry = entry;
+        Slot old = slots.put(key, slot);
+        if (old != null) {
+            size -= old.size;
+            if (old.time != slot.time) {
+                storage.remove(getStorageKey(key, old.time));
+            }
+        }
+        size += entrySize;
+        removedKeys.remove(key);
+        evict();
+
+        try {
+            storage.put(getStorageKey(key, slot.time), entry.serialize());
+        } catch (IOException e) {
+            // Entry is still cached in memory, it just won't survive reload
+        }
+        saveIndex();
+    }
+
+    static String getStorageKey(String key, long time) {
+        return ENTRY_PREFIX + Long.toHexString(time) + ":" + key;
+    }
+
+    /**
+     * Reads index of entries stored by previous sessions and removes stored entries that are not in the index,
+     * e.g. ones written in an older format or lost by concurrent index updates.
+     *
+     * @param sessionStart only entries written before this time are removed, as newer ones may belong to caches
+     * that share the storage and haven't written their index yet.
+     */
+    public void restore(long sessionStart, Runnable callback) {
+        storage.get(INDEX_KEY, data -> {
+            if (data != null) {
+                try {
+                    mergeIndex(data);
+                } catch (IOException e) {
+                    slots.clear();
+                    size = 0;
+                }
+            }
+            Set<String> indexedKeys = new HashSet<>();
+            for (Map.Entry<String, Slot> mapEntry : slots.entrySet()) {
+                indexedKeys.add(getStorageKey(mapEntry.getKey(), mapEntry.getValue().time));
+            }
+            storage.keys(keys -> {
+                for (String key : keys) {
+                    if (key.startsWith(ENTRY_PREFIX) && !indexedKeys.contains(key)
+                            && getWriteTime(key) < sessionStart) {
+                        storage.remove(key);
+                    }
+                }
+                callback.run();
+            });
+        });
+    }
+
+    private static long getWriteTime(String storageKey) {
+        int separator = storageKey.indexOf(':', ENTRY_PREFIX.length());
+        if (separator < 0) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(storageKey.substring(ENTRY_PREFIX.length(), separator), 16);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void mergeIndex(byte[] data) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        if (input.readInt() != FORMAT_VERSION) {
+            return;
+        }
+        int count = input.readInt();
+        for (int i = 0; i < count; ++i) {
+            String key = input.readUTF();
+            int slotSize = input.readInt();
+            long time = input.readLong();
+            if (!slots.containsKey(key) && !removedKeys.contains(key)) {
+                Slot slot = new Slot();
+                slot.size = slotSize;
+                slot.time = time;
+                slots.put(key, slot);
+                size += slotSize;
+            }
+        }
+    }
+
+    private void saveIndex() {
+        storage.get(INDEX_KEY, data -> {
+            if (data != null) {
+                List<Map.Entry<String, Slot>> ownSlots = new ArrayList<>(slots.entrySet());
+                try {
+                    slots.clear();
+                    size = 0;
+                    mergeIndex(data);
+                } catch (IOException e) {
+                    // Stored index is corrupted, ours replaces it
+                }
+                // Entries of this cache go after stored ones, so that stored ones are evicted first
+                for (Map.Entry<String, Slot> mapEntry : ownSlots) {
+                    Slot old = slots.put(mapEntry.getKey(), mapEntry.getValue());
+                    if (old != null) {
+                        size -= old.size;
+                    }
+                    size += mapEntry.getValue().size;
+                }
+                evict();
+            }
+            writeIndex();
+        });
+    }
+
+    private void writeIndex() {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(buffer);
+            output.writeInt(FORMAT_VERSION);
+            output.writeInt(slots.size());
+            for (Map.Entry<String, Slot> mapEntry : slots.entrySet()) {
+                output.writeUTF(mapEntry.getKey());
+                output.writeInt(mapEntry.getValue().size);
+                output.writeLong(mapEntry.getValue().time);
+            }
+            output.flush();
+            storage.put(INDEX_KEY, buffer.toByteArray());
+        } catch (IOException e) {
+            // Index will be written next time
+        }
+    }
+
+    private void evict() {
+        List<Map.Entry<String, Slot>> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Slot>> iter = slots.entrySet().iterator();
+        while (size > budget && iter.hasNext()) {
+            Map.Entry<String, Slot> mapEntry = iter.next();
+            size -= mapEntry.getValue().size;
+            evicted.add(mapEntry);
+            iter.remove();
+        }
+        for (Map.Entry<String, Slot> mapEntry : evicted) {
+            removedKeys.add(mapEntry.getKey());
+            storage.remove(getStorageKey(mapEntry.getKey(), mapEntry.getValue().time));
+        }
+    }
+
+    private void removeSlot(String key) {
+        Slot slot = slots.remove(key);
+        if (slot != null) {
+            size -= slot.size;
+            removedKeys.add(key);
+            saveIndex();
+        }
+    }
+
+    static class Slot {
+        int size;
+        long time;
+        Entry entry;
+    }
+
+    public static class Entry {
+        private String source;
+        private String status;
+        private String diagnostics;
+        private byte[] script;
+        private String[] mainClasses;
+
+        /**
+         * @param diagnostics JSON array of diagnostic messages produced by the compilation.
+         * @param script UTF-8 encoded generated script, {@code null} if compilation failed.
+         * @param mainClasses candidates for main class, {@code null} if javac failed.
+         */
+        public Entry(String source, String status, String diagnostics, byte[] script, String[] mainClasses) {
+            this.source = source;
+            this.status = status;
+            this.diagnostics = diagnostics;
+            this.script = script;
+            this.mainClasses = mainClasses;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getDiagnostics() {
+            return diagnostics;
+        }
+
+        public byte[] getScript() {
+            return script;
+        }
+
+        public String[] getMainClasses() {
+            return mainClasses;
+        }
+
+        int size() {
+            int size = 2 * (source.length() + diagnostics.length() + status.length())
+                    + (script != null ? script.length : 0);
+            if (mainClasses != null) {
+                for (String mainClass : mainClasses) {
+                    size += 2 * mainClass.length();
+                }
+            }
+            return size;
+        }
+
+        byte[] serialize() throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(size() + 64);
+            DataOutputStream output = new DataOutputStream(buffer);
+            output.writeInt(FORMAT_VERSION);
+            writeBytes(output, source.getBytes(StandardCharsets.UTF_8));
+            output.writeUTF(status);
+            writeBytes(output, diagnostics.getBytes(StandardCharsets.UTF_8));
+            writeBytes(output, script);
+            output.writeInt(mainClasses != null ? mainClasses.length : -1);
+            if (mainClasses != null) {
+                for (String mainClass : mainClasses) {
+                    output.writeUTF(mainClass);
+                }
+            }
+            output.flush();
+            return buffer.toByteArray();
+        }
+
+        static Entry deserialize(byte[] data) throws IOException {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+            if (input.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            String source = new String(readBytes(input), StandardCharsets.UTF_8);
+            String status = input.readUTF();
+            String diagnostics = new String(readBytes(input), StandardCharsets.UTF_8);
+            byte[] script = readBytes(input);
+            int mainClassCount = input.readInt();
+            String[] mainClasses = null;
+            if (mainClassCount >= 0) {
+                mainClasses = new String[mainClassCount];
+                for (int i = 0; i < mainClassCount; ++i) {
+                    mainClasses[i] = input.readUTF();
+                }
+            }
+            return new Entry(source, status, diagnostics, script, mainClasses);
+        }
+
+        private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+            if (bytes == null) {
+                output.writeInt(-1);
+                return;
+            }
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+
+        private static byte[] readBytes(DataInputStream input) throws IOException {
+            int length = input.readInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            input.readFully(bytes);
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.tools.javac.api.JavacTool;
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.code.Symbol.PackageSymbol;
+import com.sun.tools.javac.code.Symtab;
+import com.sun.tools.javac.comp.Check;
+import com.sun.tools.javac.comp.Todo;
+import com.sun.tools.javac.main.JavaCompiler;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.Log;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+
+/**
+ * <p>Keeps javac's {@link Context} alive between compilations, so that symbols of platform classes, once read
+ * and completed, are reused by subsequent compilations. After each compilation the symbols entered from
+ * the user sources are removed, while everything loaded from class files stays in the symbol table.</p>
+ *
+ * <p>Every component that javac captures when the context is first populated (file manager, diagnostic listener,
+ * output writer, options) must stay the same through the session's lifetime, therefore the diagnostic
+ * and task listeners are passed to {@link #compile(JavaFileObject, DiagnosticListener, TaskListener)}
+ * and delegated to.</p>
+ */
+public class CompilerSession {
+    private static final int MAX_COMPILATIONS = 100;
+
+    private ReusableContext context = new ReusableContext();
+    private JavaFileManager fileManager;
+    private List<String> options;
+    private Writer out;
+    private DiagnosticListener<? super JavaFileObject> diagnosticListener;
+    private TaskListener taskListener;
+    private TaskListener taskListenerDelegate;
+    private int compilationCount;
+    private boolean disposed;
+    private long startTime;
+    private long analysisTime;
+
+    public CompilerSession(JavaFileManager fileManager, List<String> options, Writer out) {
+        this.fileManager = fileManager;
+        this.options = new ArrayList<>(options);
+        this.out = out;
+    }
+
+    public int getCompilationCount() {
+        return compilationCount;
+    }
+
+    /**
+     * Time in milliseconds from the start of the last compilation until javac finished analyzing classes.
+     */
+    public long getAnalysisTime() {
+        return analysisTime;
+    }
+
+    public boolean isReusable() {
+        return !disposed && compilationCount < MAX_COMPILATIONS;
+    }
+
+    public boolean compile(JavaFileObject source, DiagnosticListener<? super JavaFileObject> listener,
+            TaskListener taskListener) throws IOException {
+        return run(source, listener, taskListener, false);
+    }
+
+    /**
+     * Runs javac up to attribution and flow analysis, without generating class files.
+     */
+    public boolean analyze(JavaFileObject source, DiagnosticListener<? super JavaFileObject> listener,
+            TaskListener taskListener) throws IOException {
+        return run(source, listener, taskListener, true);
+    }
+
+    private boolean run(JavaFileObject source, DiagnosticListener<? super JavaFileObject> listener,
+            TaskListener taskListener, boolean analyzeOnly) throws IOException {
+        if (disposed) {
+            throw new IllegalStateException("Compiler session is disposed");
+        }
+
+        diagnosticListener = listener;
+        this.taskListener = taskListener;
+        startTime = System.currentTimeMillis();
+        analysisTime = 0;
+        ReusableJavaCompiler.preRegister(context);
+        try {
+            JavacTask task = JavacTool.create().getTask(out, fileManager, this::report, options, null,
+                    Collections.singletonList(source), context);
+            if (taskListenerDelegate == null) {
+                // Task listeners are kept by the shared context, so the delegate is registered only once
+                taskListenerDelegate = new TaskListenerDelegate();
+                task.addTaskListener(taskListenerDelegate);
+            }
+            boolean success;
+            if (analyzeOnly) {
+                task.analyze();
+                success = Log.instance(context).nerrors == 0;
+            } else {
+                success = task.call();
+            }
+            out.flush();
+            return success;
+        } finally {
+            diagnosticListener = null;
+            this.taskListener = null;
+            compilationCount++;
+            resetUserState(source);
+        }
+    }
+
+    private void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+        if (diagnosticListener != null) {
+            diagnosticListener.report(diagnostic);
+        }
+    }
+
+    class TaskListenerDelegate implements TaskListener {
+        @Override
+        public void started(TaskEvent e) {
+            if (taskListener != null) {
+                taskListener.started(e);
+            }
+        }
+
+        @Override
+        public void finished(TaskEvent e) {
+            if (e.getKind() == TaskEvent.Kind.ANALYZE) {
+                analysisTime = System.currentTimeMillis() - startTime;
+            }
+            if (taskListener != null) {
+                taskListener.finished(e);
+            }
+        }
+    }
+
+    private void resetUserState(JavaFileObject source) {
+        try {
+            Symtab symtab = Symtab.instance(context);
+            Check check = Check.instance(context);
+            for (Iterator<ClassSymbol> iter = symtab.classes.values().iterator(); iter.hasNext();) {
+                ClassSymbol cls = iter.next();
+                // javac wraps client file objects, so they can only be matched by URI
+                if (cls.sourcefile == null || !cls.sourcefile.toUri().equals(source.toUri())) {
+                    continue;
+                }
+                iter.remove();
+                check.compiled.remove(cls.flatname);
+                if (cls.owner instanceof PackageSymbol) {
+                    cls.owner.members().remove(cls);
+                }
+                if (cls.flatname.toString().startsWith("java.")) {
+                    // User code redefined a platform class, symbols that refer to it can't be trusted anymore
+                    disposed = true;
+                }
+            }
+
+            Todo.instance(context).clear();
+            Log log = Log.instance(context);
+            log.nerrors = 0;
+            log.nwarnings = 0;
+        } catch (RuntimeException e) {
+            disposed = true;
+        }
+    }
+
+    static class ReusableContext extends Context {
+        private Map<Key<?>, Object> values = new HashMap<>();
+
+        @Override
+        public <T> void put(Key<T> key, Factory<T> factory) {
+            values.put(key, factory);
+        }
+
+        @Override
+        public <T> void put(Key<T> key, T data) {
+            values.put(key, data);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T get(Key<T> key) {
+            Object value = values.get(key);
+            if (value instanceof Factory<?>) {
+                T result = ((Factory<T>) value).make(this);
+                values.put(key, result);
+                return result;
+            }
+            return (T) value;
+        }
+    }
+
+    static class ReusableJavaCompiler extends JavaCompiler {
+        private Context context;
+
+        ReusableJavaCompiler(Context context) {
+            super(context);
+            this.context = context;
+        }
+
+        static void preRegister(Context context) {
+            // JavaCompiler instances can't be reused, each compilation gets a fresh one on top of shared context
+            context.put(compilerKey, (Context.Factory<JavaCompiler>) ReusableJavaCompiler::new);
+        }
+
+        @Override
+        public void close(boolean disposeNames) {
+            // Keep names and other shared components alive for the next compilation
+            Log.instance(context).flush();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaFileObject;
+import org.teavm.javac.protocol.CompilerDiagnosticBatchMessage;
+import org.teavm.javac.protocol.WorkerMessage;
+
+/**
+ * Collects javac diagnostics and posts them in batches of {@link CompilerDiagnosticBatchMessage}. A batch is sent
+ * when a javac phase finishes, when {@link #BATCH_SIZE} diagnostics are collected, and on {@link #finish()}.
+ * Warnings and notes above the limit are not sent, but counted, and the count is reported by the last batch.
+ * Errors are never suppressed, otherwise a flood of lint warnings could hide the reason why compilation failed.
+ */
+public class DiagnosticBatcher implements DiagnosticListener<JavaFileObject>, TaskListener {
+    static final int BATCH_SIZE = 64;
+    static final int DEFAULT_LIMIT = 200;
+
+    private WorkerMessage request;
+    private int limit;
+    private int reportedCount;
+    private int suppressedCount;
+    private int[] data = new int[BATCH_SIZE * CompilerDiagnosticBatchMessage.STRIDE];
+    private int size;
+    private Map<String, Integer> objectIndexes = new HashMap<>();
+    private List<String> objects = new ArrayList<>();
+    private List<String> codes = new ArrayList<>();
+    private List<String> messages = new ArrayList<>();
+
+    public DiagnosticBatcher(WorkerMessage request, int limit) {
+        this.request = request;
+        this.limit = limit > 0 ? limit : DEFAULT_LIMIT;
+    }
+
+    public int getReportedCount() {
+        return reportedCount;
+    }
+
+    public int getSuppressedCount() {
+        return suppressedCount;
+    }
+
+    @Override
+    public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+        if (reportedCount >= limit && diagnostic.getKind() != Diagnostic.Kind.ERROR) {
+            suppressedCount++;
+            return;
+        }
+        reportedCount++;
+
+        int offset = size * CompilerDiagnosticBatchMessage.STRIDE;
+        data[offset + CompilerDiagnosticBatchMessage.KIND] = encodeKind(diagnostic.getKind());
+        data[offset + CompilerDiagnosticBatchMessage.OBJECT] = diagnostic.getSource() != null
+                ? objectIndex(diagnostic.getSource().getName())
+                : -1;
+        data[offset + CompilerDiagnosticBatchMessage.START_POSITION] = (int) diagnostic.getStartPosition();
+        data[offset + CompilerDiagnosticBatchMessage.POSITION] = (int) diagnostic.getPosition();
+        data[offset + CompilerDiagnosticBatchMessage.END_POSITION] = (int) diagnostic.getEndPosition();
+        data[offset + CompilerDiagnosticBatchMessage.LINE_NUMBER] = toZeroBased(diagnostic.getLineNumber());
+        data[offset + CompilerDiagnosticBatchMessage.COLUMN_NUMBER] = toZeroBased(diagnostic.getColumnNumber());
+        codes.add(diagnostic.getCode());
+        messages.add(diagnostic.getMessage(Locale.getDefault()));
+
+        if (++size == BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    @Override
+    public void started(TaskEvent e) {
+    }
+
+    @Override
+    public void finished(TaskEvent e) {
+        flush();
+    }
+
+    /**
+     * Sends remaining diagnostics along with the number of suppressed ones.
+     */
+    public void finish() {
+        if (size > 0 || suppressedCount > 0) {
+            send(suppressedCount);
+        }
+    }
+
+    private void flush() {
+        if (size > 0) {
+            send(0);
+        }
+    }
+
+    private void send(int suppressed) {
+        CompilerDiagnosticBatchMessage message = Client.createMessage();
+        message.setId(request.getId());
+        message.setCommand("compiler-diagnostics");
+        message.setData(Arrays.copyOf(data, size * CompilerDiagnosticBatchMessage.STRIDE));
+        message.setObjects(objects.toArray(new String[objects.size()]));
+        message.setCodes(codes.toArray(new String[codes.size()]));
+        message.setMessages(messages.toArray(new String[messages.size()]));
+        message.setSuppressedCount(suppressed);
+        Client.postDiagnostic(message);
+
+        size = 0;
+        objectIndexes.clear();
+        objects.clear();
+        codes.clear();
+        messages.clear();
+    }
+
+    private int objectIndex(String name) {
+        Integer index = objectIndexes.get(name);
+        if (index == null) {
+            index = objects.size();
+            objects.add(name);
+            objectIndexes.put(name, index);
+        }
+        return index;
+    }
+
+    private static int toZeroBased(long value) {
+        return value > 0 ? (int) value - 1 : -1;
+    }
+
+    private static int encodeKind(Diagnostic.Kind kind) {
+        switch (kind) {
+            case ERROR:
+                return CompilerDiagnosticBatchMessage.KIND_ERROR;
+            case WARNING:
+                return CompilerDiagnosticBatchMessage.KIND_WARNING;
+            case MANDATORY_WARNING:
+                return CompilerDiagnosticBatchMessage.KIND_MANDATORY_WARNING;
+            case NOTE:
+                return CompilerDiagnosticBatchMessage.KIND_NOTE;
+            default:
+                return CompilerDiagnosticBatchMessage.KIND_OTHER;
+        }
+    }
+}
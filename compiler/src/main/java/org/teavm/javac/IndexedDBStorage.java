@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import org.teavm.jso.JSBody;
+import org.teavm.jso.JSFunctor;
+import org.teavm.jso.JSObject;
+import org.teavm.jso.core.JSArrayReader;
+import org.teavm.jso.core.JSString;
+import org.teavm.jso.typedarrays.ArrayBuffer;
+
+public class IndexedDBStorage implements KeyValueStorage<ArrayBuffer> {
+    private static final String STORE_NAME = "entries";
+    private JSObject database;
+
+    private IndexedDBStorage(JSObject database) {
+        this.database = database;
+    }
+
+    public static void open(String name, Consumer<KeyValueStorage<ArrayBuffer>> callback) {
+        if (!isSupported()) {
+            callback.accept(null);
+            return;
+        }
+        openDatabase(name, STORE_NAME, database -> callback.accept(database != null
+                ? new IndexedDBStorage(database)
+                : null));
+    }
+
+    @Override
+    public void get(String key, Consumer<ArrayBuffer> callback) {
+        get(database, STORE_NAME, key, callback::accept);
+    }
+
+    @Override
+    public void put(String key, ArrayBuffer value) {
+        put(database, STORE_NAME, key, value);
+    }
+
+    @Override
+    public void remove(String key) {
+        remove(database, STORE_NAME, key);
+    }
+
+    @Override
+    public void keys(Consumer<List<String>> callback) {
+        keys(database, STORE_NAME, keys -> {
+            List<String> result = new ArrayList<>();
+            for (int i = 0; i < keys.getLength(); ++i) {
+                result.add(keys.get(i).stringValue());
+            }
+            callback.accept(result);
+        });
+    }
+
+    @JSBody(script = "return typeof indexedDB !== 'undefined';")
+    private static native boolean isSupported();
+
+    @JSBody(params = { "name", "storeName", "callback" }, script = ""
+            + "var request;"
+            + "try {"
+                + "request = indexedDB.open(name, 1);"
+            + "} catch (e) {"
+                + "callback(null);"
+                + "return;"
+            + "}"
+            + "request.onupgradeneeded = function() { request.result.createObjectStore(storeName); };"
+            + "request.onsuccess = function() { callback(request.result); };"
+            + "request.onerror = function() { callback(null); };")
+    private static native void openDatabase(String name, String storeName, DatabaseCallback callback);
+
+    @JSBody(params = { "database", "storeName", "key", "callback" }, script = ""
+            + "var request = database.transaction(storeName, 'readonly').objectStore(storeName).get(key);"
+            + "request.onsuccess = function() { callback(request.result !== undefined ? request.result : null); };"
+            + "request.onerror = function() { callback(null); };")
+    private static native void get(JSObject database, String storeName, String key, BufferCallback callback);
+
+    @JSBody(params = { "database", "storeName", "key", "value" },
+            script = "database.transaction(storeName, 'readwrite').objectStore(storeName).put(value, key);")
+    private static native void put(JSObject database, String storeName, String key, ArrayBuffer value);
+
+    @JSBody(params = { "database", "storeName", "key" },
+            script = "database.transaction(storeName, 'readwrite').objectStore(storeName).delete(key);")
+    private static native void remove(JSObject database, String storeName, String key);
+
+    @JSBody(params = { "database", "storeName", "callback" }, script = ""
+            + "var request = database.transaction(storeName, 'readonly').objectStore(storeName).getAllKeys();"
+            + "request.onsuccess = function() { callback(request.result); };"
+            + "request.onerror = function() { callback([]); };")
+    private static native void keys(JSObject database, String storeName, KeysCallback callback);
+
+    @JSFunctor
+    interface DatabaseCallback extends JSObject {
+        void complete(JSObject database);
+    }
+
+    @JSFunctor
+    interface BufferCallback extends JSObject {
+        void complete(ArrayBuffer buffer);
+    }
+
+    @JSFunctor
+    interface KeysCallback extends JSObject {
+        void complete(JSArrayReader<JSString> keys);
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Asynchronous key-value storage. Values are passed as is, implementations may keep them in memory
+ * or in a persistent database.
+ */
+public interface KeyValueStorage<V> {
+    void get(String key, Consumer<V> callback);
+
+    void put(String key, V value);
+
+    void remove(String key);
+
+    void keys(Consumer<List<String>> callback);
+}
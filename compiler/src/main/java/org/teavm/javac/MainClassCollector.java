@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * Collects classes that declare {@code public static void main(String[])} from attributed symbols, as javac
+ * finishes analyzing them, so that generated class files don't have to be parsed again. Passes all events
+ * to the next listener.
+ */
+public class MainClassCollector implements TaskListener {
+    private TaskListener next;
+    private Set<String> mainClasses = new TreeSet<>();
+
+    public MainClassCollector(TaskListener next) {
+        this.next = next;
+    }
+
+    /**
+     * Binary names of found classes, sorted.
+     */
+    public Set<String> getMainClasses() {
+        return mainClasses;
+    }
+
+    @Override
+    public void started(TaskEvent e) {
+        next.started(e);
+    }
+
+    @Override
+    public void finished(TaskEvent e) {
+        if (e.getKind() == TaskEvent.Kind.ANALYZE && e.getTypeElement() != null) {
+            collect(e.getTypeElement());
+        }
+        next.finished(e);
+    }
+
+    private void collect(TypeElement type) {
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() == ElementKind.METHOD) {
+                if (isMainMethod((ExecutableElement) member) && type instanceof ClassSymbol) {
+                    mainClasses.add(((ClassSymbol) type).flatname.toString());
+                }
+            } else if (member.getKind().isClass() || member.getKind().isInterface()) {
+                // Member classes are analyzed along with their top-level class and get no events of their own
+                collect((TypeElement) member);
+            }
+        }
+    }
+
+    private static boolean isMainMethod(ExecutableElement method) {
+        if (!method.getSimpleName().contentEquals("main")
+                || !method.getModifiers().contains(Modifier.PUBLIC)
+                || !method.getModifiers().contains(Modifier.STATIC)
+                || method.getReturnType().getKind() != TypeKind.VOID
+                || method.getParameters().size() != 1) {
+            return false;
+        }
+        TypeMirror parameterType = method.getParameters().get(0).asType();
+        if (parameterType.getKind() != TypeKind.ARRAY) {
+            return false;
+        }
+        TypeMirror componentType = ((ArrayType) parameterType).getComponentType();
+        return componentType.toString().equals("java.lang.String");
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import org.teavm.jso.typedarrays.ArrayBuffer;
+import org.teavm.vm.BuildTarget;
+
+public class MemoryBuildTarget implements BuildTarget {
+    private Map<String, ArrayBufferOutputStream> resources = new HashMap<>();
+
+    @Override
+    public OutputStream createResource(String fileName) {
+        ArrayBufferOutputStream output = new ArrayBufferOutputStream(64 * 1024);
+        resources.put(fileName, output);
+        return output;
+    }
+
+    public byte[] getResource(String fileName) {
+        ArrayBufferOutputStream output = resources.get(fileName);
+        return output != null ? output.toByteArray() : null;
+    }
+
+    public ArrayBuffer getResourceBuffer(String fileName) {
+        ArrayBufferOutputStream output = resources.get(fileName);
+        return output != null ? output.toArrayBuffer() : null;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardLocation;
+
+public class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+    private Map<String, byte[]> classes = new LinkedHashMap<>();
+
+    public MemoryFileManager(JavaFileManager fileManager) {
+        super(fileManager);
+    }
+
+    public JavaFileObject addSource(String name, String content) {
+        return new StringSourceFile(name, content);
+    }
+
+    public Map<String, byte[]> getClasses() {
+        return Collections.unmodifiableMap(classes);
+    }
+
+    public void clear() {
+        classes.clear();
+    }
+
+    @Override
+    public boolean hasLocation(Location location) {
+        return location == StandardLocation.CLASS_OUTPUT || super.hasLocation(location);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+            FileObject sibling) throws IOException {
+        if (location == StandardLocation.CLASS_OUTPUT && kind == JavaFileObject.Kind.CLASS) {
+            return new OutputClassFile(className.replace('.', '/') + kind.extension);
+        }
+        return super.getJavaFileForOutput(location, className, kind, sibling);
+    }
+
+    @Override
+    public boolean isSameFile(FileObject a, FileObject b) {
+        if (a instanceof SimpleJavaFileObject || b instanceof SimpleJavaFileObject) {
+            return a.toUri().equals(b.toUri());
+        }
+        return super.isSameFile(a, b);
+    }
+
+    class OutputClassFile extends SimpleJavaFileObject {
+        private String entryName;
+
+        OutputClassFile(String entryName) {
+            super(URI.create("memory:///" + entryName), Kind.CLASS);
+            this.entryName = entryName;
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    classes.put(entryName, toByteArray());
+                }
+            };
+        }
+    }
+}
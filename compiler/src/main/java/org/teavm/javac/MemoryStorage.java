@@ -0,0 +1,47 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+public class MemoryStorage<V> implements KeyValueStorage<V> {
+    private Map<String, V> entries = new HashMap<>();
+
+    @Override
+    public void get(String key, Consumer<V> callback) {
+        callback.accept(entries.get(key));
+    }
+
+    @Override
+    public void put(String key, V value) {
+        entries.put(key, value);
+    }
+
+    @Override
+    public void remove(String key) {
+        entries.remove(key);
+    }
+
+    @Override
+    public void keys(Consumer<List<String>> callback) {
+        callback.accept(new ArrayList<>(entries.keySet()));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * <p>Reads archives produced by {@link ClassArchiveWriter}. All numbers are big-endian.</p>
+ *
+ * <pre>
+ * header:  int magic, byte version, byte flags, short reserved,
+ *          int stringCount, int entryCount, int stringTableSize
+ * strings: stringCount times (short length, UTF-8 bytes)
+ * entries: entryCount times (int directory, int name, int method, int offset, int storedSize, int size),
+ *          sorted by full name, directory and name point into the string table
+ * data:    entry contents, offsets are relative to the start of this section
+ * </pre>
+ */
+public class PackedClassArchive extends AbstractClassArchive {
+    static final int MAGIC = 0x5456434C;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 20;
+    static final int ENTRY_SIZE = 24;
+    static final int STORED = 0;
+
+    private String[] names;
+    private int entriesOffset;
+    private int dataOffset;
+
+    public PackedClassArchive(ByteSource data) throws IOException {
+        super(data);
+        readIndex();
+    }
+
+    public static boolean isPacked(ByteSource data) {
+        return data.length() >= HEADER_SIZE && readInt(data, 0) == MAGIC;
+    }
+
+    @Override
+    public Collection<String> getEntryNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    @Override
+    public boolean contains(String name) {
+        return Arrays.binarySearch(names, name) >= 0;
+    }
+
+    @Override
+    public byte[] read(String name) throws IOException {
+        int index = Arrays.binarySearch(names, name);
+        if (index < 0) {
+            return null;
+        }
+
+        int entry = entriesOffset + index * ENTRY_SIZE;
+        int method = readInt(data, entry + 8);
+        int offset = dataOffset + readInt(data, entry + 12);
+        int size = readInt(data, entry + 20);
+        if (method != STORED) {
+            throw new IOException("Unsupported compression method " + method + " of " + name);
+        }
+        return readStored(offset, size);
+    }
+
+    private void readIndex() throws IOException {
+        if (!isPacked(data)) {
+            throw new IOException("Not a packed class archive");
+        }
+        int version = readUnsignedByte(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported packed class archive version " + version);
+        }
+        int stringCount = readInt(data, 8);
+        int entryCount = readInt(data, 12);
+        int stringTableSize = readInt(data, 16);
+        entriesOffset = HEADER_SIZE + stringTableSize;
+        dataOffset = entriesOffset + entryCount * ENTRY_SIZE;
+        if (dataOffset > data.length()) {
+            throw new IOException("Corrupted packed class archive index");
+        }
+
+        String[] strings = new String[stringCount];
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < stringCount; ++i) {
+            int length = (readUnsignedByte(offset) << 8) | readUnsignedByte(offset + 1);
+            strings[i] = readString(offset + 2, length);
+            offset += 2 + length;
+        }
+
+        names = new String[entryCount];
+        for (int i = 0; i < entryCount; ++i) {
+            int entry = entriesOffset + i * ENTRY_SIZE;
+            String directory = strings[readInt(data, entry)];
+            String name = strings[readInt(data, entry + 4)];
+            names[i] = directory.isEmpty() ? name : directory + "/" + name;
+        }
+    }
+
+    static int readInt(ByteSource data, int offset) {
+        return ((data.get(offset) & 0xFF) << 24) | ((data.get(offset + 1) & 0xFF) << 16)
+                | ((data.get(offset + 2) & 0xFF) << 8) | (data.get(offset + 3) & 0xFF);
+    }
+}
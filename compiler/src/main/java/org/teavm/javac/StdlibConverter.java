@@ -16,9 +16,13 @@
 
 package org.teavm.javac;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -32,6 +36,10 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
 public class StdlibConverter extends ClassVisitor {
+    /**
+     * Identifies conversion rules in cached results, must change whenever converted classes change.
+     */
+    public static final int VERSION = 1;
     private static final String PREFIX = "org/teavm/classlib/java/";
     private static final String[] EXCLUDED = {
             "org/teavm/classlib/",
@@ -437,8 +445,29 @@ public class StdlibConverter extends ClassVisitor {
     }
 
     public static void main(String[] args) throws IOException {
-        try (ZipInputStream input = new ZipInputStream(new FileInputStream("teavm-classlib.zip"));
-                ZipOutputStream output = new ZipOutputStream(new FileOutputStream("classlib.zip"))) {
+        File inputFile = new File(args.length > 0 ? args[0] : "teavm-classlib.zip");
+        File outputFile = new File(args.length > 1 ? args[1] : "classlib.zip");
+        if (outputFile.getParentFile() != null) {
+            outputFile.getParentFile().mkdirs();
+        }
+
+        long start = System.currentTimeMillis();
+        int count;
+        try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(outputFile))) {
+            output.setLevel(Deflater.NO_COMPRESSION);
+            if (inputFile.isDirectory()) {
+                count = convertDirectory(inputFile, output);
+            } else {
+                count = convertZip(inputFile, output);
+            }
+        }
+        System.out.println("Converted " + count + " classes from " + inputFile + " to " + outputFile + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private static int convertZip(File inputFile, ZipOutputStream output) throws IOException {
+        int count = 0;
+        try (ZipInputStream input = new ZipInputStream(new FileInputStream(inputFile))) {
             while (true) {
                 ZipEntry entry = input.getNextEntry();
                 if (entry == null) {
@@ -447,17 +476,46 @@ public class StdlibConverter extends ClassVisitor {
                 if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
                     continue;
                 }
+                if (convert(input, output)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
 
-                ClassReader reader = new ClassReader(input);
-                ClassWriter writer = new ClassWriter(0);
-                StdlibConverter converter = new StdlibConverter(writer);
-                reader.accept(converter, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
-                if (converter.visible) {
-                    ZipEntry outEntry = new ZipEntry(converter.className + ".class");
-                    output.putNextEntry(outEntry);
-                    output.write(writer.toByteArray());
+    private static int convertDirectory(File dir, ZipOutputStream output) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        Arrays.sort(files);
+        int count = 0;
+        for (File file : files) {
+            if (file.isDirectory()) {
+                count += convertDirectory(file, output);
+            } else if (file.getName().endsWith(".class")) {
+                try (InputStream input = new FileInputStream(file)) {
+                    if (convert(input, output)) {
+                        count++;
+                    }
                 }
             }
         }
+        return count;
+    }
+
+    private static boolean convert(InputStream input, ZipOutputStream output) throws IOException {
+        ClassReader reader = new ClassReader(input);
+        ClassWriter writer = new ClassWriter(0);
+        StdlibConverter converter = new StdlibConverter(writer);
+        reader.accept(converter, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+        if (!converter.visible) {
+            return false;
+        }
+        output.putNextEntry(new ZipEntry(converter.className + ".class"));
+        output.write(writer.toByteArray());
+        output.closeEntry();
+        return true;
     }
 }
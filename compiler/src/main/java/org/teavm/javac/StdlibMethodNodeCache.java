@@ -0,0 +1,81 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import org.teavm.ast.AsyncMethodNode;
+import org.teavm.ast.RegularMethodNode;
+import org.teavm.ast.cache.MethodNodeCache;
+import org.teavm.model.MethodReference;
+
+public class StdlibMethodNodeCache implements MethodNodeCache {
+    private Map<MethodReference, RegularMethodNode> cache = new HashMap<>();
+    private Predicate<String> cacheableClass;
+    private int hitCount;
+    private int missCount;
+
+    public StdlibMethodNodeCache(Predicate<String> cacheableClass) {
+        this.cacheableClass = cacheableClass;
+    }
+
+    @Override
+    public RegularMethodNode get(MethodReference methodReference) {
+        if (!cacheableClass.test(methodReference.getClassName())) {
+            return null;
+        }
+        RegularMethodNode node = cache.get(methodReference);
+        if (node == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return node;
+    }
+
+    @Override
+    public void store(MethodReference methodReference, RegularMethodNode node) {
+        if (cacheableClass.test(methodReference.getClassName())) {
+            cache.put(methodReference, node);
+        }
+    }
+
+    @Override
+    public AsyncMethodNode getAsync(MethodReference methodReference) {
+        // Split points of async methods depend on which callees are async in the whole program, that includes
+        // user code, so async methods are always decompiled again
+        return null;
+    }
+
+    @Override
+    public void storeAsync(MethodReference methodReference, AsyncMethodNode node) {
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public int getMissCount() {
+        return missCount;
+    }
+
+    public void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+    }
+}
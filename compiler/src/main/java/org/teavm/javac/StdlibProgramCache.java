@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import org.teavm.model.MethodReference;
+import org.teavm.model.Program;
+import org.teavm.model.ProgramCache;
+import org.teavm.model.util.ProgramUtils;
+
+public class StdlibProgramCache implements ProgramCache {
+    private Map<MethodReference, Program> cache = new HashMap<>();
+    private Predicate<String> cacheableClass;
+    private int hitCount;
+    private int missCount;
+
+    public StdlibProgramCache(Predicate<String> cacheableClass) {
+        this.cacheableClass = cacheableClass;
+    }
+
+    @Override
+    public Program get(MethodReference method) {
+        if (!cacheableClass.test(method.getClassName())) {
+            return null;
+        }
+        Program program = cache.get(method);
+        if (program == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        // Later phases modify programs in place, so every build gets its own copy
+        return ProgramUtils.copy(program);
+    }
+
+    @Override
+    public void store(MethodReference method, Program program) {
+        if (cacheableClass.test(method.getClassName())) {
+            cache.put(method, ProgramUtils.copy(program));
+        }
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public int getMissCount() {
+        return missCount;
+    }
+
+    public void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+    }
+}
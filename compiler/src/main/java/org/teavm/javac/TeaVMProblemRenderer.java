@@ -23,7 +23,6 @@ import org.teavm.diagnostics.DefaultProblemTextConsumer;
 import org.teavm.diagnostics.Problem;
 import org.teavm.javac.protocol.TeaVMDiagnosticMessage;
 import org.teavm.javac.protocol.WorkerMessage;
-import org.teavm.jso.browser.Window;
 import org.teavm.model.CallLocation;
 import org.teavm.model.MethodReference;
 import org.teavm.model.TextLocation;
@@ -62,7 +61,7 @@ public final class TeaVMProblemRenderer {
             }
 
             message.setText(sb.toString());
-            Window.worker().postMessage(message);
+            Client.postDiagnostic(message);
         }
     }
 
@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ZipClassArchive extends AbstractClassArchive {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int END_RECORD_SIZE = 22;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private Map<String, Entry> entries = new LinkedHashMap<>();
+
+    public ZipClassArchive(ByteSource data) throws IOException {
+        super(data);
+        readCentralDirectory();
+    }
+
+    @Override
+    public Collection<String> getEntryNames() {
+        return entries.keySet();
+    }
+
+    @Override
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    @Override
+    public byte[] read(String name) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+
+        if (readInt(entry.headerOffset) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("Corrupted local header of " + name);
+        }
+        int dataOffset = entry.headerOffset + 30 + readShort(entry.headerOffset + 26)
+                + readShort(entry.headerOffset + 28);
+
+        switch (entry.method) {
+            case STORED:
+                return readStored(dataOffset, entry.size);
+            case DEFLATED:
+                return readDeflated(name, dataOffset, entry.compressedSize, entry.size);
+            default:
+                throw new IOException("Unsupported compression method " + entry.method + " of " + name);
+        }
+    }
+
+    private void readCentralDirectory() throws IOException {
+        int endOffset = data.length() - END_RECORD_SIZE;
+        int lowerBound = Math.max(0, endOffset - 0xFFFF);
+        while (endOffset >= lowerBound && readInt(endOffset) != END_SIGNATURE) {
+            --endOffset;
+        }
+        if (endOffset < lowerBound) {
+            throw new IOException("Not a zip archive");
+        }
+
+        int count = readShort(endOffset + 10);
+        int offset = readInt(endOffset + 16);
+        for (int i = 0; i < count; ++i) {
+            if (readInt(offset) != CENTRAL_HEADER_SIGNATURE) {
+                throw new IOException("Corrupted central directory");
+            }
+            int nameLength = readShort(offset + 28);
+            String name = readString(offset + 46, nameLength);
+            if (!name.endsWith("/")) {
+                Entry entry = new Entry();
+                entry.method = readShort(offset + 10);
+                entry.compressedSize = readInt(offset + 20);
+                entry.size = readInt(offset + 24);
+                entry.headerOffset = readInt(offset + 42);
+                entries.put(name, entry);
+            }
+            offset += 46 + nameLength + readShort(offset + 30) + readShort(offset + 32);
+        }
+    }
+
+    private int readShort(int offset) {
+        return readUnsignedByte(offset) | (readUnsignedByte(offset + 1) << 8);
+    }
+
+    private int readInt(int offset) {
+        return readShort(offset) | (readShort(offset + 2) << 16);
+    }
+
+    static class Entry {
+        int method;
+        int compressedSize;
+        int size;
+        int headerOffset;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class ArchiveCacheTest {
+    private MemoryStorage<String> storage = new MemoryStorage<>();
+    private ArchiveCache<String> cache = new ArchiveCache<>(storage);
+
+    @Test
+    public void returnsStoredArchive() {
+        cache.put("classlib.txt", "a1", "data");
+        assertEquals("data", get("classlib.txt", "a1"));
+        assertNull(get("classlib.txt", "b2"));
+    }
+
+    @Test
+    public void removesOtherVersions() {
+        cache.put("classlib.txt", "a1", "old");
+        cache.put("stubs.txt", "c3", "stubs");
+        cache.put("classlib.txt", "b2", "new");
+
+        assertNull(get("classlib.txt", "a1"));
+        assertEquals("new", get("classlib.txt", "b2"));
+        assertEquals("stubs", get("stubs.txt", "c3"));
+        assertEquals(2, keys().size());
+    }
+
+    @Test
+    public void invalidatesBrokenArchive() {
+        cache.put("classlib.txt", "a1", "<html>Not found</html>");
+        cache.invalidate("classlib.txt", "a1");
+        assertNull(get("classlib.txt", "a1"));
+        assertEquals(Collections.emptyList(), keys());
+    }
+
+    private String get(String name, String hash) {
+        List<String> result = new ArrayList<>();
+        cache.get(name, hash, result::add);
+        return result.get(0);
+    }
+
+    private List<String> keys() {
+        List<String> result = new ArrayList<>();
+        storage.keys(result::addAll);
+        return result;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class CompilationCacheTest {
+    private static final int BUDGET = 1000;
+
+    private MemoryStorage<byte[]> storage = new MemoryStorage<>();
+    private CompilationCache cache = new CompilationCache(storage, BUDGET);
+
+    @Test
+    public void returnsResultForSameSource() {
+        put(cache, "class A {}");
+        CompilationCache.Entry entry = get(cache, "class A {}");
+        assertNotNull(entry);
+        assertEquals("successful", entry.getStatus());
+        assertEquals("script of class A {}", new String(entry.getScript(), StandardCharsets.UTF_8));
+        assertNull(get(cache, "class B {}"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void rejectsCollidingKey() {
+        String key = CompilationCache.createKey("class A {}", "");
+        cache.put(key, entry("class A {}"));
+        List<CompilationCache.Entry> result = new ArrayList<>();
+        cache.get(key, "class B {}", result::add);
+        assertNull(result.get(0));
+    }
+
+    @Test
+    public void restoresStoredEntriesLazily() {
+        put(cache, "class A {}");
+        put(cache, "class B {}");
+
+        CompilationCache restored = restore();
+        assertEquals(cache.getSize(), restored.getSize());
+        CompilationCache.Entry entry = get(restored, "class B {}");
+        assertNotNull(entry);
+        assertEquals("script of class B {}", new String(entry.getScript(), StandardCharsets.UTF_8));
+        assertEquals(1, entry.getMainClasses().length);
+    }
+
+    @Test
+    public void evictsStoredEntriesOverBudget() {
+        for (int i = 0; i < 20; ++i) {
+            put(cache, "class A" + i + " {}");
+        }
+        assertTrue(cache.getSize() <= BUDGET);
+        assertNull(get(cache, "class A0 {}"));
+        assertNotNull(get(cache, "class A19 {}"));
+
+        int storedCount = entryKeys().size();
+        assertEquals(cache.getSize(), restore().getSize());
+        assertEquals(storedCount, entryKeys().size());
+    }
+
+    @Test
+    public void keepsEntriesOfOtherCaches() {
+        CompilationCache other = new CompilationCache(storage, BUDGET);
+        other.restore(0, () -> { });
+        put(cache, "class A {}");
+        put(other, "class B {}");
+
+        CompilationCache restored = restore();
+        assertNotNull(get(restored, "class A {}"));
+        assertNotNull(get(restored, "class B {}"));
+    }
+
+    @Test
+    public void removesEntriesMissingFromIndex() throws IOException {
+        put(cache, "class A {}");
+        String orphanKey = CompilationCache.getStorageKey("orphan", 1);
+        storage.put(orphanKey, entry("class B {}").serialize());
+
+        restore();
+        assertEquals(1, entryKeys().size());
+        assertFalse(entryKeys().contains(orphanKey));
+    }
+
+    @Test
+    public void keepsEntriesWrittenDuringSession() throws IOException {
+        long sessionStart = System.currentTimeMillis();
+        String recentKey = CompilationCache.getStorageKey("recent", sessionStart);
+        storage.put(recentKey, entry("class B {}").serialize());
+
+        CompilationCache restored = new CompilationCache(storage, BUDGET);
+        restored.restore(sessionStart, () -> { });
+        assertTrue(entryKeys().contains(recentKey));
+    }
+
+    @Test
+    public void dropsEntriesOfOtherFormat() {
+        put(cache, "class A {}");
+        storage.put(CompilationCache.INDEX_KEY, new byte[] { 0, 0, 0, 1, 0, 0, 0, 0 });
+
+        CompilationCache restored = restore();
+        assertEquals(0, restored.getSize());
+        assertEquals(0, entryKeys().size());
+        assertNull(get(restored, "class A {}"));
+    }
+
+    private CompilationCache restore() {
+        CompilationCache restored = new CompilationCache(storage, BUDGET);
+        restored.restore(Long.MAX_VALUE, () -> { });
+        return restored;
+    }
+
+    private static void put(CompilationCache cache, String source) {
+        cache.put(CompilationCache.createKey(source, ""), entry(source));
+    }
+
+    private static CompilationCache.Entry get(CompilationCache cache, String source) {
+        List<CompilationCache.Entry> result = new ArrayList<>();
+        cache.get(CompilationCache.createKey(source, ""), source, result::add);
+        return result.get(0);
+    }
+
+    private static CompilationCache.Entry entry(String source) {
+        return new CompilationCache.Entry(source, "successful", "[]",
+                ("script of " + source).getBytes(StandardCharsets.UTF_8), new String[] { "Main" });
+    }
+
+    private List<String> entryKeys() {
+        List<String> result = new ArrayList<>();
+        storage.keys(keys -> {
+            for (String key : keys) {
+                if (key.startsWith(CompilationCache.ENTRY_PREFIX)) {
+                    result.add(key);
+                }
+            }
+        });
+        return result;
+    }
+}
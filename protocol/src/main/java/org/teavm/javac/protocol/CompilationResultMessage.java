@@ -17,6 +17,7 @@
 package org.teavm.javac.protocol;
 
 import org.teavm.jso.JSProperty;
+import org.teavm.jso.typedarrays.ArrayBuffer;
 
 public interface CompilationResultMessage extends WorkerMessage {
     @JSProperty
@@ -30,4 +31,61 @@ public interface CompilationResultMessage extends WorkerMessage {
 
     @JSProperty
     void setScript(String script);
+
+    /**
+     * UTF-8 encoded script, sent instead of {@link #getScript()} when {@link CompileMessage#isBinaryScript()}
+     * is requested. The buffer is transferred with the message, not copied.
+     */
+    @JSProperty
+    ArrayBuffer getScriptBuffer();
+
+    @JSProperty
+    void setScriptBuffer(ArrayBuffer scriptBuffer);
+
+    /**
+     * Identifies content of the script, derived from source and compilation options, so that UI can reuse what it
+     * has built for an identical script. Present only along with the script.
+     */
+    @JSProperty
+    String getScriptKey();
+
+    @JSProperty
+    void setScriptKey(String scriptKey);
+
+    /**
+     * Time in milliseconds javac took, zero when javac didn't run, e.g. when result was taken from cache.
+     */
+    @JSProperty
+    int getJavacTime();
+
+    @JSProperty
+    void setJavacTime(int javacTime);
+
+    /**
+     * Part of {@link #getJavacTime()} spent until attribution and flow analysis completed.
+     */
+    @JSProperty
+    int getAnalysisTime();
+
+    @JSProperty
+    void setAnalysisTime(int analysisTime);
+
+    /**
+     * Whether the result was taken from the worker's compilation cache, in this case neither javac nor TeaVM ran.
+     */
+    @JSProperty
+    boolean isCached();
+
+    @JSProperty
+    void setCached(boolean cached);
+
+    /**
+     * Binary names of classes that declare main method, sorted. Absent when compilation failed before javac
+     * finished.
+     */
+    @JSProperty
+    String[] getMainClasses();
+
+    @JSProperty
+    void setMainClasses(String[] mainClasses);
 }
@@ -24,4 +24,28 @@ public interface CompileMessage extends WorkerMessage {
 
     @JSProperty
     void setText(String text);
+
+    @JSProperty
+    boolean isBinaryScript();
+
+    @JSProperty
+    void setBinaryScript(boolean binaryScript);
+
+    /**
+     * Maximum number of javac diagnostics to report, the rest are only counted. Non-positive value means default.
+     */
+    @JSProperty
+    int getMaxDiagnostics();
+
+    @JSProperty
+    void setMaxDiagnostics(int maxDiagnostics);
+
+    /**
+     * Class to run when source declares several main methods, {@code null} when not chosen yet.
+     */
+    @JSProperty
+    String getMainClass();
+
+    @JSProperty
+    void setMainClass(String mainClass);
 }
@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac.protocol;
+
+import org.teavm.jso.JSProperty;
+
+/**
+ * <p>Carries a number of javac diagnostics at once. Numeric fields of every diagnostic are packed into
+ * {@link #getData()}, {@link #STRIDE} values per diagnostic, string fields go to parallel arrays.
+ * Source object names are deduplicated into {@link #getObjects()} and referenced by index,
+ * {@code -1} stands for a diagnostic without source object.</p>
+ *
+ * <p>Line and column numbers are zero-based, positions are {@code -1} when not available.</p>
+ */
+public interface CompilerDiagnosticBatchMessage extends WorkerMessage {
+    int STRIDE = 7;
+
+    int KIND = 0;
+    int OBJECT = 1;
+    int START_POSITION = 2;
+    int POSITION = 3;
+    int END_POSITION = 4;
+    int LINE_NUMBER = 5;
+    int COLUMN_NUMBER = 6;
+
+    int KIND_ERROR = 0;
+    int KIND_WARNING = 1;
+    int KIND_MANDATORY_WARNING = 2;
+    int KIND_NOTE = 3;
+    int KIND_OTHER = 4;
+
+    @JSProperty
+    int[] getData();
+
+    @JSProperty
+    void setData(int[] data);
+
+    @JSProperty
+    String[] getObjects();
+
+    @JSProperty
+    void setObjects(String[] objects);
+
+    @JSProperty
+    String[] getCodes();
+
+    @JSProperty
+    void setCodes(String[] codes);
+
+    @JSProperty
+    String[] getMessages();
+
+    @JSProperty
+    void setMessages(String[] messages);
+
+    /**
+     * Number of diagnostics dropped after reaching the limit set by {@link CompileMessage#getMaxDiagnostics()}.
+     * Only the last batch of a compilation reports it.
+     */
+    @JSProperty
+    int getSuppressedCount();
+
+    @JSProperty
+    void setSuppressedCount(int suppressedCount);
+}
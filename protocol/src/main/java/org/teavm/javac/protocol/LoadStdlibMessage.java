@@ -24,4 +24,35 @@ public interface LoadStdlibMessage extends WorkerMessage {
 
     @JSProperty
     void setUrl(String url);
+
+    @JSProperty
+    String getStubsUrl();
+
+    @JSProperty
+    void setStubsUrl(String stubsUrl);
+
+    @JSProperty
+    boolean isLazy();
+
+    @JSProperty
+    void setLazy(boolean lazy);
+
+    /**
+     * Byte budget of compilation result cache, cache is disabled when not positive.
+     */
+    @JSProperty
+    int getCompilationCacheSize();
+
+    @JSProperty
+    void setCompilationCacheSize(int compilationCacheSize);
+
+    /**
+     * Time the page started the pool, in milliseconds since epoch. Workers of the pool don't remove cached
+     * entries written after that time, as other workers may still be adding them to the cache index.
+     */
+    @JSProperty
+    double getSessionStart();
+
+    @JSProperty
+    void setSessionStart(double sessionStart);
 }
@@ -16,17 +16,18 @@
 
 package org.teavm.javac.ui;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import org.teavm.interop.Async;
 import org.teavm.javac.protocol.CompilationResultMessage;
 import org.teavm.javac.protocol.CompileMessage;
-import org.teavm.javac.protocol.CompilerDiagnosticMessage;
+import org.teavm.javac.protocol.CompilerDiagnosticBatchMessage;
 import org.teavm.javac.protocol.ErrorMessage;
 import org.teavm.javac.protocol.LoadStdlibMessage;
 import org.teavm.javac.protocol.TeaVMDiagnosticMessage;
 import org.teavm.javac.protocol.WorkerMessage;
+import org.teavm.javac.ui.MessageDispatcher.ResponseStream;
 import org.teavm.javac.ui.codemirror.CodeMirror;
 import org.teavm.javac.ui.codemirror.CodeMirrorConfig;
 import org.teavm.javac.ui.codemirror.Mark;
@@ -36,18 +37,14 @@ import org.teavm.jso.JSBody;
 import org.teavm.jso.JSObject;
 import org.teavm.jso.ajax.XMLHttpRequest;
 import org.teavm.jso.browser.Window;
+import org.teavm.jso.core.JSArray;
 import org.teavm.jso.core.JSArrayReader;
 import org.teavm.jso.core.JSString;
-import org.teavm.jso.dom.events.EventListener;
-import org.teavm.jso.dom.events.MessageEvent;
 import org.teavm.jso.dom.html.HTMLButtonElement;
 import org.teavm.jso.dom.html.HTMLDocument;
 import org.teavm.jso.dom.html.HTMLElement;
-import org.teavm.jso.dom.html.HTMLIFrameElement;
 import org.teavm.jso.dom.html.HTMLMetaElement;
 import org.teavm.jso.json.JSON;
-import org.teavm.jso.workers.Worker;
-import org.teavm.platform.async.AsyncCallback;
 
 public final class Client {
     private Client() {
@@ -56,12 +53,35 @@ public final class Client {
     private static final String DIAGNOSTICS_GUTTER = "diagnostics";
     private static final int WARNING = 1;
     private static final int ERROR = 2;
-
-    private static Worker worker;
+    private static final int DEFAULT_CONSOLE_CAPACITY = 10000;
+    private static final int DEFAULT_COMPILATION_CACHE_SIZE = 16 * 1024 * 1024;
+    private static final String SCRIPT_PREAMBLE = "scriptEvalStart = performance.now();\n";
+    private static final int SCRIPT_URL_CACHE_SIZE = 4;
+
+    private static MessageDispatcher dispatcher = new MessageDispatcher();
+    private static WorkerPool workerPool;
+    private static int requestTimeout = 60000;
+    private static boolean binaryScript = true;
+    private static long runStartTime;
+    private static int maxDiagnostics;
     private static HTMLButtonElement compileButton = HTMLDocument.current().getElementById("compile-button").cast();
     private static HTMLButtonElement examplesButton = HTMLDocument.current().getElementById("choose-example").cast();
-    private static HTMLElement stdoutElement;
+    private static HTMLElement mainClassSelect = HTMLDocument.current().getElementById("main-class");
+    private static String[] mainClasses = new String[0];
+    private static Console console;
     private static int lastId;
+    private static String currentCompilationId;
+    private static String currentCheckId;
+    private static String diagnosticsOwnerId;
+    private static int checkDelay = 500;
+    private static int checkTimer = -1;
+    private static int speculationDelay = 1500;
+    private static int speculationTimer = -1;
+    private static Speculation speculation;
+    private static CompileMessage activeRun;
+    private static String lintedSource;
+    private static String lastRunSource;
+    private static int lastRunAnalysisTime;
     private static CodeMirror codeMirror;
     private static PositionIndexer positionIndexer;
     private static HTMLElement[] gutterElements;
@@ -72,22 +92,24 @@ public final class Client {
     private static final Map<String, ExampleCategory> categories = new HashMap<>();
 
     public static void main(String[] args) {
-        frame = (HTMLIFrameElement) HTMLDocument.current().getElementById("result");
+        HTMLMetaElement framePoolElem = HTMLDocument.current().getHead()
+                .querySelector("[property=framePool]").cast();
+        framePool = new FramePool(HTMLDocument.current().getElementById("result-container"),
+                HTMLDocument.current().getElementById("result"),
+                framePoolElem == null || !framePoolElem.getContent().equals("false"));
         initEditor();
         initExamples();
         initStdout();
         init();
         compileButton.addEventListener("click", event -> {
             new Thread(() -> {
-                String generatedCode;
-                try {
-                    compileButton.setDisabled(true);
-                    generatedCode = compile();
-                } finally {
-                    compileButton.setDisabled(false);
+                CompilationResultMessage result = compile();
+                if (result != null) {
+                    executeCode(result);
                 }
-                if (generatedCode != null) {
-                    executeCode(generatedCode);
+                // Run is compiled without lint checks, so warnings are reported by a check that goes afterwards
+                if (!codeMirror.getValue().equals(lintedSource)) {
+                    check();
                 }
             }).start();
         });
@@ -101,6 +123,9 @@ public final class Client {
         codeMirror = CodeMirror.fromTextArea(HTMLDocument.current().getElementById("source-code"), config);
 
         loadCode();
+        codeMirror.on("change", Client::scheduleCheck);
+        codeMirror.on("change", Client::scheduleSpeculation);
+        mainClassSelect.addEventListener("change", event -> scheduleSpeculation());
         Window.current().listenBeforeOnload(e -> saveCode());
         Window.current().listenBlur(e -> saveCode());
     }
@@ -190,34 +215,20 @@ public final class Client {
     }
 
     private static void initStdout() {
-        stdoutElement = HTMLDocument.current().getElementById("stdout");
-        Window.current().addEventListener("message", (MessageEvent event) -> {
-            FrameCommand request = JSON.parse(((JSString) event.getData()).stringValue()).cast();
-            if (request.getCommand().equals("stdout")) {
-                FrameStdoutCommand stdoutCommand = request.cast();
-                addToConsole(stdoutCommand.getLine(), false);
-            }
-        });
+        HTMLMetaElement consoleCapacityElem = HTMLDocument.current().getHead()
+                .querySelector("[property=consoleCapacity]").cast();
+        int consoleCapacity = consoleCapacityElem != null
+                ? Integer.parseInt(consoleCapacityElem.getContent())
+                : DEFAULT_CONSOLE_CAPACITY;
+        console = new Console(HTMLDocument.current().getElementById("stdout"), consoleCapacity);
     }
 
     private static void addTextToConsole(String text, boolean compileTime) {
-        int last = 0;
-        for (int i = 0; i < text.length(); ++i) {
-            if (text.charAt(i) == '\n') {
-                addToConsole(text.substring(last, i), compileTime);
-                last = i + 1;
-            }
-        }
-        addToConsole(text.substring(last), compileTime);
+        console.addText(text, compileTime);
     }
 
     private static void addToConsole(String line, boolean compileTime) {
-        HTMLElement lineElem = HTMLDocument.current().createElement("div").withText(line);
-        if (compileTime) {
-            lineElem.setClassName("compile-time");
-        }
-        stdoutElement.appendChild(lineElem);
-        stdoutElement.setScrollTop(Math.max(0, stdoutElement.getScrollHeight() - stdoutElement.getClientHeight()));
+        console.addLine(line, compileTime);
     }
 
     private static boolean init() {
@@ -237,12 +248,53 @@ public final class Client {
             return false;
         }
 
-        worker = Worker.create(workerLocationElem.getContent());
+        HTMLMetaElement stdlibStubsLocationElem = HTMLDocument.current().getHead()
+                .querySelector("[property=stdlibStubsLocation]").cast();
+        HTMLMetaElement lazyStdlibElem = HTMLDocument.current().getHead()
+                .querySelector("[property=lazyStdlib]").cast();
+        HTMLMetaElement compilationCacheSizeElem = HTMLDocument.current().getHead()
+                .querySelector("[property=compilationCacheSize]").cast();
+        HTMLMetaElement binaryScriptElem = HTMLDocument.current().getHead()
+                .querySelector("[property=binaryScript]").cast();
+        binaryScript = binaryScriptElem == null || !binaryScriptElem.getContent().equals("false");
+        HTMLMetaElement maxDiagnosticsElem = HTMLDocument.current().getHead()
+                .querySelector("[property=maxDiagnostics]").cast();
+        if (maxDiagnosticsElem != null) {
+            maxDiagnostics = Integer.parseInt(maxDiagnosticsElem.getContent());
+        }
+        HTMLMetaElement checkDelayElem = HTMLDocument.current().getHead()
+                .querySelector("[property=checkDelay]").cast();
+        if (checkDelayElem != null) {
+            checkDelay = Integer.parseInt(checkDelayElem.getContent());
+        }
+        HTMLMetaElement speculationDelayElem = HTMLDocument.current().getHead()
+                .querySelector("[property=speculativeCompileDelay]").cast();
+        if (speculationDelayElem != null) {
+            speculationDelay = Integer.parseInt(speculationDelayElem.getContent());
+        }
+
+        HTMLMetaElement workerPoolSizeElem = HTMLDocument.current().getHead()
+                .querySelector("[property=workerPoolSize]").cast();
+        int workerPoolSize = workerPoolSizeElem != null
+                ? Integer.parseInt(workerPoolSizeElem.getContent())
+                : WorkerPool.getDefaultSize();
+        HTMLMetaElement requestTimeoutElem = HTMLDocument.current().getHead()
+                .querySelector("[property=requestTimeout]").cast();
+        if (requestTimeoutElem != null) {
+            requestTimeout = Integer.parseInt(requestTimeoutElem.getContent());
+        }
+        workerPool = new WorkerPool(workerLocationElem.getContent(), workerPoolSize,
+                HTMLDocument.current().getElementById("worker-pool-status"), dispatcher);
 
         LoadStdlibMessage loadStdlib = createMessage("load-classlib");
         loadStdlib.setUrl(stdlibLocationElem.getContent());
-        worker.postMessage(loadStdlib);
-        WorkerMessage loadStdlibResult = waitForResponse(loadStdlib);
+        loadStdlib.setStubsUrl(stdlibStubsLocationElem != null ? stdlibStubsLocationElem.getContent() : null);
+        loadStdlib.setLazy(lazyStdlibElem != null && lazyStdlibElem.getContent().equals("true"));
+        loadStdlib.setCompilationCacheSize(compilationCacheSizeElem != null
+                ? Integer.parseInt(compilationCacheSizeElem.getContent())
+                : DEFAULT_COMPILATION_CACHE_SIZE);
+        loadStdlib.setSessionStart(System.currentTimeMillis());
+        WorkerMessage loadStdlibResult = workerPool.init(loadStdlib);
         if (!loadStdlibResult.getCommand().equals("ok")) {
             Window.alert("Could not load standard library: " + ((ErrorMessage) loadStdlibResult).getText());
             return false;
@@ -252,9 +304,193 @@ public final class Client {
         return true;
     }
 
-    private static String compile() {
-        stdoutElement.clear();
+    private static CompilationResultMessage compile() {
+        console.clear();
+        runStartTime = System.currentTimeMillis();
+
+        String code = codeMirror.getValue();
+        CompileMessage request;
+        ResponseStream responses;
+        boolean speculative = speculation != null && speculation.source.equals(code)
+                && isSameMainClass(speculation.request.getMainClass(), getSelectedMainClass());
+        if (speculative) {
+            // Source hasn't changed since speculative compilation was sent, its responses are waiting in the stream
+            request = speculation.request;
+            responses = speculation.responses;
+            speculation = null;
+            workerPool.promote(request);
+            System.out.println("Run takes over speculative compilation " + request.getId());
+        } else {
+            dropSpeculation();
+            request = createCompileRequest(code);
+            responses = dispatcher.expect(request, requestTimeout);
+        }
+        if (activeRun != null) {
+            // Latest Run wins, the previous one must not keep a worker busy with a build nobody waits for
+            workerPool.cancel(activeRun);
+        }
+        activeRun = request;
+        currentCompilationId = request.getId();
+        resetEditorDiagnostics(request.getId(), code);
+        try {
+            if (!speculative) {
+                if (workerPool.submit(request, false) == null) {
+                    responses.close();
+                    return null;
+                }
+                responses.sent();
+            }
+            return waitForCompilation(request, responses, code, speculative);
+        } finally {
+            if (activeRun == request) {
+                activeRun = null;
+            }
+        }
+    }
+
+    private static CompilationResultMessage waitForCompilation(CompileMessage request, ResponseStream responses,
+            String code, boolean speculative) {
+        while (true) {
+            WorkerMessage response = responses.next();
+            if (response == null) {
+                // Speculative compilation was dropped before it reached a worker
+                return null;
+            }
+            if (!request.getId().equals(currentCompilationId)) {
+                // Superseded by a newer compilation, which has already reset console and editor marks
+                if (response.getCommand().equals("compilation-complete") || response.getCommand().equals("error")) {
+                    return null;
+                }
+                continue;
+            }
+            switch (response.getCommand()) {
+                case "compilation-complete": {
+                    CompilationResultMessage compilationResult = response.cast();
+                    if (speculative && compilationResult.getStatus().equals("cancelled")) {
+                        // Worker gave up speculative compilation, e.g. in favor of another request
+                        return compile();
+                    }
+                    updateMainClasses(compilationResult.getMainClasses());
+                    if (compilationResult.isCached()) {
+                        System.out.println("Compilation " + request.getId() + " served from worker cache");
+                    } else if (compilationResult.getJavacTime() > 0) {
+                        lastRunSource = code;
+                        lastRunAnalysisTime = compilationResult.getAnalysisTime();
+                        System.out.println("javac without lint took " + compilationResult.getJavacTime()
+                                + " ms, analysis took " + compilationResult.getAnalysisTime() + " ms");
+                    }
+                    return compilationResult.getStatus().equals("successful") ? compilationResult : null;
+                }
+                case "error":
+                    addTextToConsole(((ErrorMessage) response).getText(), true);
+                    return null;
+                case "compiler-diagnostics":
+                    handleCompilerDiagnostics(response.cast());
+                    break;
+                case "diagnostic":
+                    handleDiagnostic(response.cast());
+                    break;
+            }
+        }
+    }
+
+    private static CompileMessage createCompileRequest(String code) {
+        CompileMessage request = createMessage("compile");
+        request.setText(code);
+        request.setBinaryScript(binaryScript);
+        request.setMaxDiagnostics(maxDiagnostics);
+        request.setMainClass(getSelectedMainClass());
+        return request;
+    }
+
+    /**
+     * Shows main class selector when compiled source declares several main methods. Selection survives
+     * recompilation as long as the selected class is still there.
+     */
+    private static void updateMainClasses(String[] candidates) {
+        if (candidates == null || Arrays.equals(candidates, mainClasses)) {
+            return;
+        }
+        String selected = getSelectedMainClass();
+        mainClasses = candidates;
+        HTMLDocument document = HTMLDocument.current();
+        mainClassSelect.clear();
+        mainClassSelect.appendChild(document.createElement("option").withText("Choose main class")
+                .withAttr("value", ""));
+        for (String candidate : candidates) {
+            HTMLElement option = document.createElement("option").withText(candidate).withAttr("value", candidate);
+            if (candidate.equals(selected)) {
+                option.setAttribute("selected", "selected");
+            }
+            mainClassSelect.appendChild(option);
+        }
+        mainClassSelect.getStyle().setProperty("display", candidates.length > 1 ? "inline-block" : "none");
+    }
+
+    private static String getSelectedMainClass() {
+        if (mainClasses.length <= 1) {
+            return null;
+        }
+        String value = getValue(mainClassSelect);
+        return value.isEmpty() ? null : value;
+    }
+
+    @JSBody(params = "element", script = "return element.value;")
+    private static native String getValue(HTMLElement element);
+
+    private static boolean isSameMainClass(String first, String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    private static void scheduleSpeculation() {
+        dropSpeculation();
+        if (speculationDelay < 0) {
+            return;
+        }
+        if (speculationTimer >= 0) {
+            Window.clearTimeout(speculationTimer);
+        }
+        speculationTimer = Window.setTimeout(() -> {
+            speculationTimer = -1;
+            new Thread(Client::speculate).start();
+        }, speculationDelay);
+    }
+
+    /**
+     * Compiles current source in background while user is idle. Responses are not handled here, they stay
+     * in the response stream until Run with the same source takes them in {@link #compile()}.
+     */
+    private static void speculate() {
+        if (workerPool == null) {
+            return;
+        }
+        Speculation current = new Speculation();
+        current.source = codeMirror.getValue();
+        current.request = createCompileRequest(current.source);
+        current.responses = dispatcher.expect(current.request, requestTimeout);
+        speculation = current;
+        if (workerPool.submit(current.request, true) == null) {
+            current.responses.close();
+            if (speculation == current) {
+                speculation = null;
+            }
+            return;
+        }
+        current.responses.sent();
+    }
+
+    private static void dropSpeculation() {
+        if (speculation == null) {
+            return;
+        }
+        System.out.println("Speculative compilation " + speculation.request.getId() + " dropped");
+        workerPool.cancel(speculation.request);
+        speculation.responses.close();
+        speculation = null;
+    }
 
+    private static void resetEditorDiagnostics(String ownerId, String code) {
+        diagnosticsOwnerId = ownerId;
         JSArrayReader<Mark> allMarks = codeMirror.getAllMarks();
         for (int i = 0; i < allMarks.getLength(); ++i) {
             allMarks.get(i).clear();
@@ -262,55 +498,135 @@ public final class Client {
         codeMirror.clearGutter(DIAGNOSTICS_GUTTER);
         gutterElements = new HTMLElement[codeMirror.lineCount()];
         gutterSeverity = new int[codeMirror.lineCount()];
+        positionIndexer = new PositionIndexer(code);
+    }
 
-        CompileMessage request = createMessage("compile");
+    private static void scheduleCheck() {
+        if (checkDelay < 0) {
+            return;
+        }
+        if (checkTimer >= 0) {
+            Window.clearTimeout(checkTimer);
+        }
+        checkTimer = Window.setTimeout(() -> {
+            checkTimer = -1;
+            new Thread(Client::check).start();
+        }, checkDelay);
+    }
+
+    private static void check() {
+        if (workerPool == null) {
+            return;
+        }
+        CompileMessage request = createMessage("check");
+        currentCheckId = request.getId();
         String code = codeMirror.getValue();
-        positionIndexer = new PositionIndexer(code);
         request.setText(code);
-        worker.postMessage(request);
+        request.setMaxDiagnostics(maxDiagnostics);
+        long start = System.currentTimeMillis();
+        ResponseStream responses = dispatcher.expect(request, requestTimeout);
+        if (workerPool.submit(request, true) == null) {
+            responses.close();
+            return;
+        }
+        responses.sent();
 
+        boolean ownsEditor = false;
         while (true) {
-            WorkerMessage response = waitForResponse(request);
-            switch (response.getCommand()) {
-                case "compilation-complete": {
-                    CompilationResultMessage compilationResult = response.cast();
-                    return compilationResult.getStatus().equals("successful") ? compilationResult.getScript() : null;
+            WorkerMessage response = responses.next();
+            if (response == null) {
+                // Background check was dropped before it reached a worker
+                return;
+            }
+            boolean complete = response.getCommand().equals("check-complete") || response.getCommand().equals("error");
+            if (!request.getId().equals(currentCheckId) || isNewerThan(currentCompilationId, request.getId())) {
+                // Either user typed something after the check was sent, or explicit compilation took over the editor
+                if (complete) {
+                    return;
                 }
-                case "compiler-diagnostic":
-                    handleCompilerDiagnostic(response.cast());
-                    break;
-                case "diagnostic":
-                    handleDiagnostic(response.cast());
-                    break;
+                continue;
+            }
+            if (!ownsEditor) {
+                // Keep old marks until the results arrive, so that they don't flicker while user types
+                resetEditorDiagnostics(request.getId(), code);
+                ownsEditor = true;
+            }
+            if (complete) {
+                System.out.println("Check " + request.getId() + " completed in "
+                        + (System.currentTimeMillis() - start) + " ms");
+                if (response.getCommand().equals("check-complete")) {
+                    reportLintPass(code, response.cast());
+                }
+                return;
+            }
+            if (response.getCommand().equals("compiler-diagnostics")) {
+                displayMarksInEditor(response.cast());
             }
         }
     }
 
-    private static void handleCompilerDiagnostic(CompilerDiagnosticMessage request) {
-        StringBuilder sb = new StringBuilder();
-        switch (request.getKind()) {
-            case "ERROR":
-                sb.append("ERROR ");
-                break;
-            case "WARNING":
-            case "MANDATORY_WARNING":
-                sb.append("WARNING ");
-                break;
+    private static void reportLintPass(String code, CompilationResultMessage result) {
+        String status = result.getStatus();
+        if (!status.equals("successful") && !status.equals("errors")) {
+            return;
         }
+        lintedSource = code;
+        System.out.println("Lint pass: javac took " + result.getJavacTime() + " ms, analysis took "
+                + result.getAnalysisTime() + " ms");
+        if (code.equals(lastRunSource)) {
+            System.out.println("About " + Math.max(0, result.getAnalysisTime() - lastRunAnalysisTime)
+                    + " ms of lint analysis kept off the critical path of the last Run");
+        }
+    }
 
-        if (request.getObject() != null) {
-            sb.append("at " + request.getObject().getName());
-            if (request.getLineNumber() >= 0) {
-                sb.append("(").append(request.getLineNumber() + 1).append(":").append(request.getColumnNumber() + 1)
-                        .append(")");
+    private static boolean isNewerThan(String id, String otherId) {
+        return id != null && Integer.parseInt(id) > Integer.parseInt(otherId);
+    }
+
+    private static void handleCompilerDiagnostics(CompilerDiagnosticBatchMessage batch) {
+        int[] data = batch.getData();
+        String[] objects = batch.getObjects();
+        String[] messages = batch.getMessages();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < messages.length; ++i) {
+            int offset = i * CompilerDiagnosticBatchMessage.STRIDE;
+            if (i > 0) {
+                sb.append('\n');
             }
-            sb.append(' ');
+            switch (data[offset + CompilerDiagnosticBatchMessage.KIND]) {
+                case CompilerDiagnosticBatchMessage.KIND_ERROR:
+                    sb.append("ERROR ");
+                    break;
+                case CompilerDiagnosticBatchMessage.KIND_WARNING:
+                case CompilerDiagnosticBatchMessage.KIND_MANDATORY_WARNING:
+                    sb.append("WARNING ");
+                    break;
+            }
+
+            int objectIndex = data[offset + CompilerDiagnosticBatchMessage.OBJECT];
+            if (objectIndex >= 0) {
+                sb.append("at " + objects[objectIndex]);
+                int lineNumber = data[offset + CompilerDiagnosticBatchMessage.LINE_NUMBER];
+                if (lineNumber >= 0) {
+                    sb.append("(").append(lineNumber + 1).append(":")
+                            .append(data[offset + CompilerDiagnosticBatchMessage.COLUMN_NUMBER] + 1).append(")");
+                }
+                sb.append(' ');
+            }
+            sb.append(messages[i]);
+        }
+        if (batch.getSuppressedCount() > 0) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append("... ").append(batch.getSuppressedCount()).append(" more diagnostics suppressed");
+        }
+        if (sb.length() > 0) {
+            addTextToConsole(sb.toString(), true);
         }
-        sb.append(request.getMessage());
-        addTextToConsole(sb.toString(), true);
 
-        if (request.getStartPosition() >= 0) {
-            displayMarkInEditor(request);
+        if (batch.getId().equals(diagnosticsOwnerId)) {
+            displayMarksInEditor(batch);
         }
     }
 
@@ -327,7 +643,7 @@ public final class Client {
         sb.append(request.getText());
         addTextToConsole(sb.toString(), true);
 
-        if (request.getLineNumber() >= 0) {
+        if (request.getLineNumber() >= 0 && request.getId().equals(diagnosticsOwnerId)) {
             int severity;
             switch (request.getSeverity()) {
                 case "ERROR":
@@ -343,46 +659,64 @@ public final class Client {
         }
     }
 
-    private static void displayMarkInEditor(CompilerDiagnosticMessage request) {
-        Position start = positionIndexer.getPositionAt(request.getStartPosition(), true);
+    private static void displayMarksInEditor(CompilerDiagnosticBatchMessage batch) {
+        int[] data = batch.getData();
+        String[] messages = batch.getMessages();
+        // Let CodeMirror recompute layout once for the whole batch instead of once per mark
+        codeMirror.operation(() -> {
+            for (int i = 0; i < messages.length; ++i) {
+                int offset = i * CompilerDiagnosticBatchMessage.STRIDE;
+                int startPosition = data[offset + CompilerDiagnosticBatchMessage.START_POSITION];
+                if (startPosition >= 0) {
+                    displayMarkInEditor(data[offset + CompilerDiagnosticBatchMessage.KIND], startPosition,
+                            data[offset + CompilerDiagnosticBatchMessage.END_POSITION], messages[i]);
+                }
+            }
+        });
+    }
+
+    private static void displayMarkInEditor(int kind, int startPosition, int endPosition, String message) {
+        Position start = positionIndexer.getPositionAt(startPosition, true);
         if (start.line >= gutterElements.length) {
             return;
         }
 
-        int endPosition = request.getEndPosition();
-        if (endPosition == request.getStartPosition()) {
+        if (endPosition == startPosition) {
             endPosition++;
         }
         Position end = positionIndexer.getPositionAt(endPosition, false);
 
         MarkOptions options = createJs();
         int gutterSeverity;
-        switch (request.getKind()) {
-            case "ERROR":
+        switch (kind) {
+            case CompilerDiagnosticBatchMessage.KIND_ERROR:
                 options.setClassName("red-wave");
-                gutterSeverity = 2;
+                gutterSeverity = ERROR;
                 break;
-            case "WARNING":
-            case "MANDATORY_WARNING":
+            case CompilerDiagnosticBatchMessage.KIND_WARNING:
+            case CompilerDiagnosticBatchMessage.KIND_MANDATORY_WARNING:
                 options.setClassName("yellow-wave");
-                gutterSeverity = 1;
+                gutterSeverity = WARNING;
                 break;
             default:
                 return;
         }
         options.setInclusiveLeft(true);
         options.setInclusiveRight(true);
-        options.setTitle(request.getMessage());
+        options.setTitle(message);
 
         codeMirror.markText(
                 TextLocation.create(start.line, start.column),
                 TextLocation.create(end.line, end.column),
                 options);
 
-        addGutterDiagnostic(gutterSeverity, start.line, request.getMessage());
+        addGutterDiagnostic(gutterSeverity, start.line, message);
     }
 
     private static void addGutterDiagnostic(int severity, int line, String message) {
+        if (line >= gutterSeverity.length) {
+            return;
+        }
         if (gutterSeverity[line] < severity) {
             gutterSeverity[line] = severity;
         }
@@ -423,61 +757,27 @@ public final class Client {
         return message;
     }
 
-    @Async
-    private static native <T extends WorkerMessage> T waitForResponse(WorkerMessage request);
-    private static void waitForResponse(WorkerMessage request, AsyncCallback<WorkerMessage> callback) {
-        class ResponseWait {
-            EventListener<MessageEvent> listener;
+    private static FramePool framePool;
+    private static ScriptUrlCache scriptUrlCache = new ScriptUrlCache(SCRIPT_URL_CACHE_SIZE);
 
-            void run() {
-                listener = event -> {
-                    if (!isMessage(event.getData())) {
-                        return;
-                    }
-                    WorkerMessage message = event.getData().cast();
-                    if (message.getId().equals(request.getId())) {
-                        worker.removeEventListener("message", listener);
-                        callback.complete(message);
-                    }
-                };
-                worker.addEventListener("message", listener);
-            }
+    private static void executeCode(CompilationResultMessage result) {
+        JSArray<JSObject> parts = JSArray.create();
+        parts.push(JSString.valueOf(SCRIPT_PREAMBLE));
+        if (result.getScriptBuffer() != null) {
+            parts.push(result.getScriptBuffer());
+        } else {
+            parts.push(JSString.valueOf(result.getScript()));
         }
-        new ResponseWait().run();
-    }
-
-    @JSBody(params = "object", script = "return 'id' in object && typeof object.id === 'string';")
-    private static native boolean isMessage(JSObject object);
 
-    private static HTMLIFrameElement frame;
-    private static EventListener<MessageEvent> listener;
-
-    private static void executeCode(String code) {
-        if (frame != null) {
-            frame.delete();
+        ExecutionFrame frame = framePool.acquire(console, runStartTime);
+        if (result.getScriptKey() == null) {
+            frame.load(parts);
+            return;
         }
-
-        HTMLDocument document = Window.current().getDocument();
-        frame = (HTMLIFrameElement) document.createElement("iframe");
-        frame.setSourceAddress("frame.html");
-        frame.setWidth("1px");
-        frame.setHeight("1px");
-        frame.setClassName("result");
-
-        listener = event -> {
-            FrameCommand command = JSON.parse(((JSString) event.getData()).stringValue()).cast();
-            if (command.getCommand().equals("ready")) {
-                FrameCodeCommand codeCommand = createJs();
-                codeCommand.setCommand("code");
-                codeCommand.setCode(code);
-                frame.getContentWindow().postMessage(JSString.valueOf(JSON.stringify(codeCommand)), "*");
-                Window.current().removeEventListener("message", listener);
-                listener = null;
-            }
-        };
-        Window.current().addEventListener("message", listener);
-
-        document.getElementById("result-container").appendChild(frame);
+        int hitCount = scriptUrlCache.getHitCount();
+        frame.load(scriptUrlCache.getUrl(result.getScriptKey(), parts));
+        System.out.println("Script URL " + (scriptUrlCache.getHitCount() > hitCount ? "reused" : "created") + " ("
+                + scriptUrlCache.getHitCount() + " hits, " + scriptUrlCache.getMissCount() + " misses)");
     }
 
     private static void loadCode() {
@@ -491,6 +791,12 @@ public final class Client {
         Window.current().getLocalStorage().setItem("teavm-java-code", codeMirror.getValue());
     }
 
+    static class Speculation {
+        String source;
+        CompileMessage request;
+        ResponseStream responses;
+    }
+
     static class ExampleCategory {
         String title;
         Map<String, String> items = new LinkedHashMap<>();
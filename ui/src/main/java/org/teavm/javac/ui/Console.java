@@ -0,0 +1,164 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.teavm.jso.JSBody;
+import org.teavm.jso.browser.Window;
+import org.teavm.jso.dom.html.HTMLDocument;
+import org.teavm.jso.dom.html.HTMLElement;
+
+/**
+ * <p>Output console that can take any amount of lines without freezing the page. Lines are kept in a ring
+ * buffer of a fixed capacity, the oldest ones are dropped when it overflows. Appending a line does not touch
+ * DOM, instead rendering is scheduled for the next animation frame, which creates elements only for rows that
+ * are currently visible.</p>
+ *
+ * <p>All rows have the same height, so long lines are not wrapped.</p>
+ */
+public class Console {
+    private static final int OVERSCAN = 5;
+
+    private HTMLElement container;
+    private HTMLElement spacer;
+    private HTMLElement viewport;
+    private List<HTMLElement> rows = new ArrayList<>();
+    private String[] lines;
+    private boolean[] compileTime;
+    private int start;
+    private int size;
+    private int rowHeight;
+    private boolean followTail = true;
+    private boolean renderScheduled;
+
+    public Console(HTMLElement container, int capacity) {
+        this.container = container;
+        lines = new String[capacity];
+        compileTime = new boolean[capacity];
+
+        HTMLDocument document = HTMLDocument.current();
+        container.clear();
+        spacer = document.createElement("div");
+        spacer.setClassName("console-spacer");
+        viewport = document.createElement("div");
+        viewport.setClassName("console-viewport");
+        spacer.appendChild(viewport);
+        container.appendChild(spacer);
+
+        container.addEventListener("scroll", event -> {
+            followTail = container.getScrollTop() + container.getClientHeight()
+                    >= container.getScrollHeight() - rowHeight;
+            scheduleRender();
+        });
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void addLine(String line, boolean compileTime) {
+        int index;
+        if (size < lines.length) {
+            index = (start + size++) % lines.length;
+        } else {
+            index = start;
+            start = (start + 1) % lines.length;
+        }
+        lines[index] = line;
+        this.compileTime[index] = compileTime;
+        scheduleRender();
+    }
+
+    public void addText(String text, boolean compileTime) {
+        int last = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            if (text.charAt(i) == '\n') {
+                addLine(text.substring(last, i), compileTime);
+                last = i + 1;
+            }
+        }
+        addLine(text.substring(last), compileTime);
+    }
+
+    public void clear() {
+        for (int i = 0; i < lines.length; ++i) {
+            lines[i] = null;
+        }
+        start = 0;
+        size = 0;
+        followTail = true;
+        scheduleRender();
+    }
+
+    private void scheduleRender() {
+        if (!renderScheduled) {
+            renderScheduled = true;
+            Window.requestAnimationFrame(timestamp -> render());
+        }
+    }
+
+    private void render() {
+        renderScheduled = false;
+        if (rowHeight == 0) {
+            // Console may be hidden at the moment, in that case try again on next rendering
+            rowHeight = measureRowHeight();
+            if (rowHeight == 0) {
+                return;
+            }
+        }
+
+        spacer.getStyle().setProperty("height", size * rowHeight + "px");
+        int clientHeight = container.getClientHeight();
+        if (followTail) {
+            container.setScrollTop(Math.max(0, size * rowHeight - clientHeight));
+        }
+
+        int first = Math.max(0, container.getScrollTop() / rowHeight - OVERSCAN);
+        int last = Math.min(size, first + clientHeight / rowHeight + 2 * OVERSCAN + 1);
+        int visibleCount = Math.max(0, last - first);
+
+        while (rows.size() < visibleCount) {
+            HTMLElement row = HTMLDocument.current().createElement("div");
+            viewport.appendChild(row);
+            rows.add(row);
+        }
+        while (rows.size() > visibleCount) {
+            rows.remove(rows.size() - 1).delete();
+        }
+
+        viewport.getStyle().setProperty("transform", "translateY(" + first * rowHeight + "px)");
+        for (int i = 0; i < visibleCount; ++i) {
+            int index = (start + first + i) % lines.length;
+            HTMLElement row = rows.get(i);
+            row.setClassName(compileTime[index] ? "console-row compile-time" : "console-row");
+            setText(row, lines[index]);
+        }
+    }
+
+    private int measureRowHeight() {
+        HTMLElement probe = HTMLDocument.current().createElement("div").withText("X");
+        probe.setClassName("console-row");
+        viewport.appendChild(probe);
+        int height = probe.getOffsetHeight();
+        probe.delete();
+        return height;
+    }
+
+    @JSBody(params = { "element", "text" }, script = "element.textContent = text;")
+    private static native void setText(HTMLElement element, String text);
+}
@@ -0,0 +1,238 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.teavm.jso.JSBody;
+import org.teavm.jso.JSObject;
+import org.teavm.jso.browser.Window;
+import org.teavm.jso.core.JSArray;
+import org.teavm.jso.core.JSString;
+import org.teavm.jso.dom.events.EventListener;
+import org.teavm.jso.dom.events.MessageEvent;
+import org.teavm.jso.dom.html.HTMLDocument;
+import org.teavm.jso.dom.html.HTMLElement;
+import org.teavm.jso.dom.html.HTMLIFrameElement;
+import org.teavm.jso.json.JSON;
+
+/**
+ * An iframe that runs a single generated program. The frame starts loading runtime as soon as it's created,
+ * commands sent before it reports {@code ready} are queued. Program output goes to the console through
+ * a dedicated {@link MessagePort}, only after the frame is {@link #activate(Console, long) activated}.
+ */
+public class ExecutionFrame {
+    private static int[] firstOutputCount = new int[2];
+    private static long[] firstOutputTotal = new long[2];
+
+    private HTMLIFrameElement element;
+    private boolean ready;
+    private boolean readyOnActivation;
+    private List<FrameCommand> pendingCommands = new ArrayList<>();
+    private EventListener<MessageEvent> listener;
+    private MessagePort stdoutPort;
+    private Console console;
+    private long createdTime = System.currentTimeMillis();
+    private long runStartTime;
+    private boolean outputReceived;
+    private Runnable loadListener;
+    private String scriptUrl;
+
+    public ExecutionFrame(HTMLElement container) {
+        element = (HTMLIFrameElement) HTMLDocument.current().createElement("iframe");
+        element.setSourceAddress("frame.html");
+        element.setWidth("1px");
+        element.setHeight("1px");
+        element.setClassName("result result-warming");
+
+        listener = event -> {
+            if (!isSentBy(event, element)) {
+                return;
+            }
+            FrameCommand command = JSON.parse(((JSString) event.getData()).stringValue()).cast();
+            switch (command.getCommand()) {
+                case "ready":
+                    ready = true;
+                    System.out.println("Frame ready in " + (System.currentTimeMillis() - createdTime) + " ms");
+                    openStdoutChannel();
+                    for (FrameCommand pendingCommand : pendingCommands) {
+                        send(pendingCommand);
+                    }
+                    pendingCommands.clear();
+                    break;
+                case "loaded": {
+                    revokeScriptUrl();
+                    FrameLoadedCommand loaded = command.cast();
+                    System.out.println("Script loaded in " + describe() + " frame "
+                            + (System.currentTimeMillis() - runStartTime) + " ms after Run: load and parse "
+                            + formatTime(loaded.getLoadTime()) + ", evaluation " + formatTime(loaded.getEvalTime())
+                            + ", main " + formatTime(loaded.getMainTime()));
+                    if (loadListener != null) {
+                        loadListener.run();
+                    }
+                    break;
+                }
+                case "load-failed":
+                    revokeScriptUrl();
+                    System.out.println("Script failed to load in " + describe() + " frame");
+                    if (loadListener != null) {
+                        loadListener.run();
+                    }
+                    break;
+            }
+        };
+        Window.current().addEventListener("message", listener);
+
+        container.appendChild(element);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void setLoadListener(Runnable loadListener) {
+        this.loadListener = loadListener;
+    }
+
+    /**
+     * Makes the frame visible and lets its output into the console.
+     *
+     * @param runStartTime time when user requested running the program, latencies are reported relative to it.
+     */
+    public void activate(Console console, long runStartTime) {
+        this.console = console;
+        this.runStartTime = runStartTime;
+        readyOnActivation = ready;
+        element.setClassName("result");
+    }
+
+    public void send(FrameCommand command) {
+        if (!ready) {
+            pendingCommands.add(command);
+            return;
+        }
+        element.getContentWindow().postMessage(JSString.valueOf(JSON.stringify(command)), "*");
+    }
+
+    /**
+     * Loads and runs a program. The script gets its own object URL, which is revoked once the frame has loaded it.
+     *
+     * @param parts script content as a sequence of strings and {@code ArrayBuffer}s of UTF-8 text.
+     */
+    public void load(JSArray<JSObject> parts) {
+        revokeScriptUrl();
+        scriptUrl = ScriptUrlCache.createUrl(parts);
+        sendLoad(scriptUrl);
+    }
+
+    /**
+     * Loads and runs a program from an object URL owned by the caller, e.g. by {@link ScriptUrlCache}.
+     */
+    public void load(String url) {
+        revokeScriptUrl();
+        sendLoad(url);
+    }
+
+    private void sendLoad(String url) {
+        FrameLoadCommand command = createCommand().cast();
+        command.setCommand("load");
+        command.setUrl(url);
+        send(command);
+    }
+
+    private void revokeScriptUrl() {
+        if (scriptUrl != null) {
+            ScriptUrlCache.revokeUrl(scriptUrl);
+            scriptUrl = null;
+        }
+    }
+
+    public void dispose() {
+        revokeScriptUrl();
+        element.delete();
+        Window.current().removeEventListener("message", listener);
+        if (stdoutPort != null) {
+            stdoutPort.close();
+            stdoutPort = null;
+        }
+        pendingCommands.clear();
+        console = null;
+        loadListener = null;
+    }
+
+    private void openStdoutChannel() {
+        MessageChannel channel = MessageChannel.create();
+        stdoutPort = channel.getPort1();
+        MessagePort port = stdoutPort;
+        port.addEventListener("message", (MessageEvent event) -> {
+            if (console == null) {
+                return;
+            }
+            if (!outputReceived) {
+                outputReceived = true;
+                reportFirstOutput(System.currentTimeMillis() - runStartTime);
+            }
+            FrameStdoutBatch batch = event.getData().cast();
+            for (String line : batch.getLines()) {
+                console.addLine(line, false);
+            }
+            // Frame holds next batch until acknowledgement, unless the program has printed too much meanwhile
+            FrameCommand ack = createCommand();
+            ack.setCommand("ack");
+            port.postMessage(ack);
+        });
+        port.start();
+
+        FrameCommand command = createCommand();
+        command.setCommand("stdout-port");
+        postMessage(element.getContentWindow(), command, channel.getPort2());
+    }
+
+    private static String formatTime(double time) {
+        return Math.round(time * 10) / 10.0 + " ms";
+    }
+
+    /**
+     * Logs Run-to-first-output latency along with averages over the session, separately for cold and pre-warmed
+     * frames, so that both can be compared by running a program repeatedly with {@code framePool} on and off.
+     */
+    private void reportFirstOutput(long latency) {
+        int kind = readyOnActivation ? 1 : 0;
+        firstOutputCount[kind]++;
+        firstOutputTotal[kind] += latency;
+        System.out.println("First output in " + describe() + " frame " + latency + " ms after Run, average: cold "
+                + formatAverage(0) + ", pre-warmed " + formatAverage(1));
+    }
+
+    private static String formatAverage(int kind) {
+        int count = firstOutputCount[kind];
+        return count > 0 ? firstOutputTotal[kind] / count + " ms of " + count + " runs" : "n/a";
+    }
+
+    private String describe() {
+        return readyOnActivation ? "pre-warmed" : "cold";
+    }
+
+    @JSBody(params = { "event", "frame" }, script = "return event.source === frame.contentWindow;")
+    private static native boolean isSentBy(MessageEvent event, HTMLIFrameElement frame);
+
+    @JSBody(script = "return {};")
+    private static native FrameCommand createCommand();
+
+    @JSBody(params = { "target", "message", "transfer" }, script = "target.postMessage(message, '*', [transfer]);")
+    private static native void postMessage(Window target, JSObject message, JSObject transfer);
+}
@@ -18,10 +18,13 @@ package org.teavm.javac.ui;
 
 import org.teavm.jso.JSProperty;
 
-public interface FrameCodeCommand extends FrameCommand {
+/**
+ * Tells the frame to load the program from the given URL and run its main method.
+ */
+public interface FrameLoadCommand extends FrameCommand {
     @JSProperty
-    String getCode();
+    String getUrl();
 
     @JSProperty
-    void setCode(String code);
+    void setUrl(String url);
 }
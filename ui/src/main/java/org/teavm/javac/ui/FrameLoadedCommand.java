@@ -0,0 +1,39 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac.ui;
+
+import org.teavm.jso.JSProperty;
+
+/**
+ * Reported by the frame when the program is loaded and its main method returned. All times are in milliseconds.
+ */
+public interface FrameLoadedCommand extends FrameCommand {
+    /**
+     * Time from adding the script to the document to the beginning of its evaluation, i.e. loading and parsing.
+     */
+    @JSProperty
+    double getLoadTime();
+
+    /**
+     * Time of evaluating top-level code of the script.
+     */
+    @JSProperty
+    double getEvalTime();
+
+    @JSProperty
+    double getMainTime();
+}
@@ -0,0 +1,69 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac.ui;
+
+import org.teavm.jso.dom.html.HTMLElement;
+
+/**
+ * Keeps a spare {@link ExecutionFrame} that has already loaded runtime, so that running a program doesn't wait
+ * for frame creation. Frames are never reused, since a program leaves its state in the frame, instead a new
+ * spare one starts warming up as soon as the previous one took over and loaded its program.
+ */
+public class FramePool {
+    private HTMLElement container;
+    private HTMLElement placeholder;
+    private boolean enabled;
+    private ExecutionFrame spare;
+    private ExecutionFrame active;
+
+    public FramePool(HTMLElement container, HTMLElement placeholder, boolean enabled) {
+        this.container = container;
+        this.placeholder = placeholder;
+        this.enabled = enabled;
+        if (enabled) {
+            spare = new ExecutionFrame(container);
+        }
+    }
+
+    /**
+     * Replaces the active frame with a fresh one.
+     */
+    public ExecutionFrame acquire(Console console, long runStartTime) {
+        if (placeholder != null) {
+            placeholder.delete();
+            placeholder = null;
+        }
+        if (active != null) {
+            active.dispose();
+        }
+
+        active = spare != null ? spare : new ExecutionFrame(container);
+        spare = null;
+        active.activate(console, runStartTime);
+        if (enabled) {
+            // Don't compete with the program for loading and parsing, warm next frame once the program is loaded
+            active.setLoadListener(this::warmUp);
+        }
+        return active;
+    }
+
+    private void warmUp() {
+        if (enabled && spare == null) {
+            spare = new ExecutionFrame(container);
+        }
+    }
+}
@@ -14,21 +14,15 @@
  *  limitations under the License.
  */
 
-package org.teavm.javac.protocol;
+package org.teavm.javac.ui;
 
 import org.teavm.jso.JSObject;
 import org.teavm.jso.JSProperty;
 
-public interface CompilableObject extends JSObject {
-    @JSProperty
-    String getKind();
-
-    @JSProperty
-    void setKind(String kind);
-
-    @JSProperty
-    String getName();
-
+/**
+ * Lines printed by the program, sent by the frame through a dedicated {@link MessagePort}.
+ */
+public interface FrameStdoutBatch extends JSObject {
     @JSProperty
-    void setName(String name);
+    String[] getLines();
 }
@@ -0,0 +1,35 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac.ui;
+
+import org.teavm.jso.JSBody;
+import org.teavm.jso.JSObject;
+import org.teavm.jso.JSProperty;
+
+public abstract class MessageChannel implements JSObject {
+    private MessageChannel() {
+    }
+
+    @JSBody(script = "return new MessageChannel();")
+    public static native MessageChannel create();
+
+    @JSProperty
+    public abstract MessagePort getPort1();
+
+    @JSProperty
+    public abstract MessagePort getPort2();
+}
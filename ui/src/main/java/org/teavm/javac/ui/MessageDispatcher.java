@@ -0,0 +1,201 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac.ui;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import org.teavm.interop.Async;
+import org.teavm.javac.protocol.ErrorMessage;
+import org.teavm.javac.protocol.WorkerMessage;
+import org.teavm.jso.JSBody;
+import org.teavm.jso.JSObject;
+import org.teavm.jso.browser.Window;
+import org.teavm.jso.dom.events.MessageEvent;
+import org.teavm.jso.workers.Worker;
+import org.teavm.platform.async.AsyncCallback;
+
+/**
+ * Listens to messages of workers and routes them to pending requests by id. Each worker gets exactly one
+ * listener, a request is found with a single map lookup, no matter how many requests are in flight.
+ * A request may receive any number of intermediate messages (diagnostics, compilation phases), until
+ * the final one (see {@link #isFinalResponse(JSObject)}) removes it.
+ */
+public class MessageDispatcher {
+    private Map<String, ResponseStream> pendingRequests = new HashMap<>();
+    private TimeoutListener timeoutListener;
+
+    public void attach(Worker worker, MessageObserver observer) {
+        worker.addEventListener("message", (MessageEvent event) -> {
+            JSObject data = event.getData();
+            if (!isMessage(data)) {
+                return;
+            }
+            WorkerMessage message = data.cast();
+            if (observer != null) {
+                observer.received(message);
+            }
+            dispatch(message);
+        });
+    }
+
+    /**
+     * Starts collecting responses to the given request, must be called before the request is sent.
+     *
+     * @param timeout time in milliseconds the request may stay without any response after
+     *                {@link ResponseStream#sent()}, after that it is completed with an {@code error} message.
+     *                Non-positive value means no timeout.
+     */
+    public ResponseStream expect(WorkerMessage request, int timeout) {
+        ResponseStream stream = new ResponseStream(request.getId(), timeout);
+        pendingRequests.put(request.getId(), stream);
+        return stream;
+    }
+
+    /**
+     * Sets listener that is notified when a request times out, e.g. to free the worker that handles it.
+     */
+    public void setTimeoutListener(TimeoutListener timeoutListener) {
+        this.timeoutListener = timeoutListener;
+    }
+
+    private void dispatch(WorkerMessage message) {
+        ResponseStream stream = pendingRequests.get(message.getId());
+        if (stream == null) {
+            return;
+        }
+        stream.push(message);
+        if (isFinalResponse(message)) {
+            stream.close();
+        } else {
+            stream.restartTimer();
+        }
+    }
+
+    @JSBody(params = "message", script = "return message.command === 'compilation-complete' "
+            + "|| message.command === 'check-complete' || message.command === 'error' || message.command === 'ok';")
+    static native boolean isFinalResponse(JSObject message);
+
+    @JSBody(params = "object", script = "return 'id' in object && typeof object.id === 'string';")
+    private static native boolean isMessage(JSObject object);
+
+    @JSBody(script = "return {};")
+    private static native <T extends JSObject> T createMessage();
+
+    public interface MessageObserver {
+        void received(WorkerMessage message);
+    }
+
+    public interface TimeoutListener {
+        void timedOut(String requestId);
+    }
+
+    public class ResponseStream {
+        private String id;
+        private int timeout;
+        private int timer = -1;
+        private boolean closed;
+        private Queue<WorkerMessage> messages = new ArrayDeque<>();
+        private AsyncCallback<WorkerMessage> callback;
+
+        ResponseStream(String id, int timeout) {
+            this.id = id;
+            this.timeout = timeout;
+        }
+
+        /**
+         * Waits for the next response. After the final response was taken, returns {@code null}.
+         */
+        @Async
+        public native WorkerMessage next();
+
+        private void next(AsyncCallback<WorkerMessage> callback) {
+            if (!messages.isEmpty()) {
+                callback.complete(messages.remove());
+            } else if (closed) {
+                callback.complete(null);
+            } else {
+                this.callback = callback;
+            }
+        }
+
+        /**
+         * Starts timeout countdown. Requests may wait in a queue before they are actually sent to a worker,
+         * that time is not counted.
+         */
+        public void sent() {
+            if (!closed) {
+                restartTimer();
+            }
+        }
+
+        /**
+         * Stops waiting for responses, e.g. when the request was never sent. Responses that are already received
+         * can still be taken.
+         */
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (timer >= 0) {
+                Window.clearTimeout(timer);
+                timer = -1;
+            }
+            pendingRequests.remove(id);
+            if (callback != null) {
+                AsyncCallback<WorkerMessage> currentCallback = callback;
+                callback = null;
+                currentCallback.complete(null);
+            }
+        }
+
+        void push(WorkerMessage message) {
+            if (callback != null) {
+                AsyncCallback<WorkerMessage> currentCallback = callback;
+                callback = null;
+                currentCallback.complete(message);
+            } else {
+                messages.add(message);
+            }
+        }
+
+        void restartTimer() {
+            if (timeout <= 0) {
+                return;
+            }
+            if (timer >= 0) {
+                Window.clearTimeout(timer);
+            }
+            timer = Window.setTimeout(this::timedOut, timeout);
+        }
+
+        private void timedOut() {
+            timer = -1;
+            ErrorMessage message = createMessage();
+            message.setId(id);
+            message.setCommand("error");
+            message.setText("Worker did not respond in " + timeout + " ms");
+            push(message);
+            close();
+            if (timeoutListener != null) {
+                timeoutListener.timedOut(id);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.teavm.javac.ui;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.teavm.jso.JSBody;
+import org.teavm.jso.JSObject;
+import org.teavm.jso.core.JSArray;
+
+/**
+ * Gives out object URLs of generated scripts by the script key the worker reports, so that running an unchanged
+ * program loads the same URL again. URLs are owned by the main window, they stay valid for frames until evicted
+ * and are revoked on eviction.
+ */
+public class ScriptUrlCache {
+    private int capacity;
+    private Map<String, String> urls = new LinkedHashMap<>(16, 0.75f, true);
+    private int hitCount;
+    private int missCount;
+
+    public ScriptUrlCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @param parts script content as a sequence of strings and {@code ArrayBuffer}s of UTF-8 text, only used
+     *              when there's no URL for the key yet.
+     */
+    public String getUrl(String key, JSArray<JSObject> parts) {
+        String url = urls.get(key);
+        if (url != null) {
+            hitCount++;
+            return url;
+        }
+
+        missCount++;
+        url = createUrl(parts);
+        urls.put(key, url);
+        if (urls.size() > capacity) {
+            Iterator<String> eldest = urls.values().iterator();
+            revokeUrl(eldest.next());
+            eldest.remove();
+        }
+        return url;
+    }
+
+    @JSBody(params = "parts", script = "return URL.createObjectURL(new Blob(parts, { type: 'text/javascript' }));")
+    static native String createUrl(JSArray<JSObject> parts);
+
+    @JSBody(params = "url", script = "URL.revokeObjectURL(url);")
+    static native void revokeUrl(String url);
+}
@@ -0,0 +1,285 @@
+/*
+ *  Copyright 2017 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teavm.javac.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.teavm.interop.Async;
+import org.teavm.javac.protocol.WorkerMessage;
+import org.teavm.jso.JSBody;
+import org.teavm.jso.JSObject;
+import org.teavm.jso.dom.html.HTMLElement;
+import org.teavm.jso.workers.Worker;
+import org.teavm.platform.async.AsyncCallback;
+
+public class WorkerPool {
+    private static final int MAX_DEFAULT_SIZE = 4;
+
+    private String url;
+    private List<PooledWorker> workers = new ArrayList<>();
+    private List<QueuedRequest> queue = new ArrayList<>();
+    private HTMLElement statusElement;
+    private MessageDispatcher dispatcher;
+    private WorkerMessage initMessage;
+
+    public WorkerPool(String url, int size, HTMLElement statusElement, MessageDispatcher dispatcher) {
+        this.url = url;
+        this.statusElement = statusElement;
+        this.dispatcher = dispatcher;
+        for (int i = 0; i < size; ++i) {
+            workers.add(new PooledWorker());
+        }
+        dispatcher.setTimeoutListener(this::requestTimedOut);
+    }
+
+    public static int getDefaultSize() {
+        return Math.max(1, Math.min(MAX_DEFAULT_SIZE, getHardwareConcurrency()));
+    }
+
+    @JSBody(script = "return navigator.hardwareConcurrency || 1;")
+    private static native int getHardwareConcurrency();
+
+    public int getSize() {
+        return workers.size();
+    }
+
+    /**
+     * Initializes the first worker and waits until it responds. Only then the remaining workers are initialized
+     * in background, so that they find downloaded classlib in persistent cache instead of downloading it
+     * in parallel. They join the pool as soon as they are ready.
+     */
+    @Async
+    public native WorkerMessage init(WorkerMessage message);
+
+    private void init(WorkerMessage message, AsyncCallback<WorkerMessage> callback) {
+        initMessage = message;
+        initFirst(0, callback);
+    }
+
+    private void initFirst(int index, AsyncCallback<WorkerMessage> callback) {
+        workers.get(index).initialize(response -> {
+            if (response.getCommand().equals("ok")) {
+                callback.complete(response);
+                for (int i = index + 1; i < workers.size(); ++i) {
+                    workers.get(i).initialize(null);
+                }
+            } else if (index + 1 < workers.size()) {
+                initFirst(index + 1, callback);
+            } else {
+                callback.complete(response);
+            }
+        });
+        updateStatus();
+    }
+
+    /**
+     * Waits for an idle worker and sends the message to it.
+     *
+     * @param background whether the message is work the user doesn't wait for, like speculative compilation.
+     * Background messages are sent only when no other messages are queued. If a newer background message
+     * with the same command is submitted while this one is still waiting in the queue, this message is dropped
+     * and {@code null} is returned.
+     */
+    @Async
+    public native Worker submit(WorkerMessage message, boolean background);
+
+    private void submit(WorkerMessage message, boolean background, AsyncCallback<Worker> callback) {
+        if (background) {
+            for (int i = 0; i < queue.size(); ++i) {
+                QueuedRequest queued = queue.get(i);
+                if (queued.background && queued.message.getCommand().equals(message.getCommand())) {
+                    queue.remove(i--);
+                    queued.callback.complete(null);
+                }
+            }
+        }
+        QueuedRequest request = new QueuedRequest();
+        request.message = message;
+        request.background = background;
+        request.callback = callback;
+        queue.add(request);
+        dispatchQueue();
+    }
+
+    /**
+     * Makes a background message an ordinary one, e.g. when the user starts waiting for its result.
+     */
+    public void promote(WorkerMessage message) {
+        for (QueuedRequest queued : queue) {
+            if (queued.message == message) {
+                queued.background = false;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Cancels the message. A message that still waits in the queue is dropped, and its
+     * {@link #submit(WorkerMessage, boolean)} returns {@code null}. For a message that is already sent, the worker
+     * is asked to stop, and it completes the message with {@code cancelled} status.
+     */
+    public void cancel(WorkerMessage message) {
+        for (int i = 0; i < queue.size(); ++i) {
+            QueuedRequest queued = queue.get(i);
+            if (queued.message == message) {
+                queue.remove(i);
+                queued.callback.complete(null);
+                updateStatus();
+                return;
+            }
+        }
+        for (PooledWorker worker : workers) {
+            if (message.getId().equals(worker.activeRequestId)) {
+                WorkerMessage cancelMessage = createMessage();
+                cancelMessage.setId(message.getId());
+                cancelMessage.setCommand("cancel");
+                worker.worker.postMessage(cancelMessage);
+                return;
+            }
+        }
+    }
+
+    @JSBody(script = "return {};")
+    private static native <T extends JSObject> T createMessage();
+
+    private void dispatchQueue() {
+        for (PooledWorker worker : workers) {
+            if (queue.isEmpty()) {
+                break;
+            }
+            if (worker.ready && worker.activeRequestId == null) {
+                QueuedRequest request = queue.remove(nextInQueue());
+                worker.start(request.message);
+                request.callback.complete(worker.worker);
+            }
+        }
+        updateStatus();
+    }
+
+    private int nextInQueue() {
+        for (int i = 0; i < queue.size(); ++i) {
+            if (!queue.get(i).background) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private void updateStatus() {
+        if (statusElement == null) {
+            return;
+        }
+        int busyCount = 0;
+        StringBuilder utilization = new StringBuilder();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < workers.size(); ++i) {
+            PooledWorker worker = workers.get(i);
+            if (worker.activeRequestId != null && worker.ready) {
+                busyCount++;
+            }
+            utilization.append(i > 0 ? ", " : "").append(worker.getUtilization(now)).append('%');
+        }
+        statusElement.clear();
+        statusElement.withText("workers: " + busyCount + "/" + workers.size() + " busy, queue: " + queue.size());
+        statusElement.setTitle("Utilization: " + utilization);
+    }
+
+    private void requestTimedOut(String id) {
+        for (PooledWorker worker : workers) {
+            if (worker.ready && id.equals(worker.activeRequestId)) {
+                // Worker doesn't respond, it's probably stuck, so it is replaced by a fresh one
+                worker.restart();
+            }
+        }
+    }
+
+    @JSBody(params = "worker", script = "worker.terminate();")
+    private static native void terminate(Worker worker);
+
+    class PooledWorker {
+        Worker worker;
+        String activeRequestId;
+        ResponseHandler onComplete;
+        boolean ready;
+        long readySince;
+        long busySince;
+        long busyTime;
+
+        void initialize(ResponseHandler callback) {
+            ready = false;
+            worker = Worker.create(url);
+            dispatcher.attach(worker, this::handleMessage);
+            activeRequestId = initMessage.getId();
+            onComplete = response -> {
+                onComplete = null;
+                if (response.getCommand().equals("ok")) {
+                    ready = true;
+                    readySince = System.currentTimeMillis();
+                    busyTime = 0;
+                    dispatchQueue();
+                }
+                if (callback != null) {
+                    callback.handle(response);
+                }
+            };
+            worker.postMessage(initMessage);
+        }
+
+        void restart() {
+            terminate(worker);
+            initialize(null);
+            updateStatus();
+        }
+
+        void start(WorkerMessage message) {
+            activeRequestId = message.getId();
+            busySince = System.currentTimeMillis();
+            worker.postMessage(message);
+        }
+
+        void handleMessage(WorkerMessage message) {
+            if (!MessageDispatcher.isFinalResponse(message) || !message.getId().equals(activeRequestId)) {
+                return;
+            }
+            activeRequestId = null;
+            if (onComplete != null) {
+                onComplete.handle(message);
+            } else {
+                busyTime += System.currentTimeMillis() - busySince;
+                dispatchQueue();
+            }
+        }
+
+        int getUtilization(long now) {
+            if (!ready || now == readySince) {
+                return 0;
+            }
+            long time = busyTime + (activeRequestId != null ? now - busySince : 0);
+            return (int) (time * 100 / (now - readySince));
+        }
+    }
+
+    interface ResponseHandler {
+        void handle(WorkerMessage message);
+    }
+
+    static class QueuedRequest {
+        WorkerMessage message;
+        boolean background;
+        AsyncCallback<Worker> callback;
+    }
+}
@@ -41,4 +41,8 @@ public abstract class CodeMirror implements JSObject {
     public abstract void clearGutter(String id);
 
     public abstract void setGutterMarker(int line, String gutterId, HTMLElement value);
+
+    public abstract void on(String eventName, ChangeListener listener);
+
+    public abstract void operation(Operation operation);
 }
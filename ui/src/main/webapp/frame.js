@@ -14,25 +14,46 @@
  *  limitations under the License.
  */
 
+// Set by the preamble UI puts in front of every script, separates script loading and parsing from evaluation
+var scriptEvalStart = 0;
+
 window.addEventListener("message", function(event) {
-    var request = JSON.parse(event.data);
-    appendFile(request.code + "\nmain();\n", function() {
-        event.source.postMessage(JSON.stringify({ status: "loaded" }), "*");
-    },
-    function (error) {
-        event.source.postMessage(JSON.stringify({ status: "failed", errorMessage: error }), "*");
-    });
+    var request = typeof event.data === "string" ? JSON.parse(event.data) : event.data;
+    if (request.command === "stdout-port") {
+        setStdoutPort(event.ports[0]);
+    } else if (request.command === "load") {
+        loadScript(request.url, function(timing) {
+            timing.command = "loaded";
+            event.source.postMessage(JSON.stringify(timing), "*");
+        },
+        function(error) {
+            event.source.postMessage(JSON.stringify({ command: "load-failed", errorMessage: error }), "*");
+        });
+    }
 });
 
-function appendFile(file, callback, errorCallback) {
+function loadScript(url, callback, errorCallback) {
+    // Unlike inline scripts, scripts with URL can be parsed off the main thread, cached by the engine
+    // and report load and error events
     var script = document.createElement("script");
+    var start = performance.now();
     script.onload = function() {
-        callback();
+        var evaluated = performance.now();
+        var timing = {
+            loadTime: scriptEvalStart - start,
+            evalTime: evaluated - scriptEvalStart
+        };
+        try {
+            main();
+        } finally {
+            timing.mainTime = performance.now() - evaluated;
+            callback(timing);
+        }
     };
     script.onerror = function() {
-        errorCallback("failed to load script" + fileName);
+        errorCallback("failed to load script " + url);
     };
-    script.text = file;
+    script.src = url;
     document.body.appendChild(script);
 }
 
@@ -40,12 +61,64 @@ function start() {
     window.parent.postMessage(JSON.stringify({ command: "ready" }), "*");
 }
 
-var $stdoutBuffer = "";
+// Program output is sent in batches of lines through a dedicated port, which UI passes once the frame is ready.
+// Normally no more than STDOUT_MAX_IN_FLIGHT batches wait for acknowledgement and the rest is buffered here,
+// so that UI renders few large batches instead of many small ones. The program runs synchronously and can't
+// wait for acknowledgement, so once STDOUT_MAX_BUFFERED lines are buffered they are posted regardless
+// of the window. Nothing is lost, and the program pays for copying its output instead of getting further ahead.
+var STDOUT_BATCH_SIZE = 1000;
+var STDOUT_FLUSH_DELAY = 16;
+var STDOUT_MAX_IN_FLIGHT = 2;
+var STDOUT_MAX_BUFFERED = 20000;
+
+var stdoutPort = null;
+var stdoutLines = [];
+var stdoutLineChars = [];
+var stdoutInFlight = 0;
+var stdoutFlushTimer = null;
+
+function setStdoutPort(port) {
+    stdoutPort = port;
+    stdoutPort.onmessage = function() {
+        stdoutInFlight--;
+        flushStdout();
+    };
+    flushStdout();
+}
+
 function $rt_putStdout(ch) {
     if (ch === 0xA) {
-        window.parent.postMessage(JSON.stringify({ command: "stdout", line: $rt_stdoutBuffer }), "*");
-        $rt_stdoutBuffer = "";
+        stdoutLines.push(charsToString(stdoutLineChars));
+        stdoutLineChars = [];
+        if (stdoutLines.length >= STDOUT_MAX_BUFFERED) {
+            flushStdout(true);
+        } else if (stdoutLines.length >= STDOUT_BATCH_SIZE) {
+            flushStdout();
+        } else if (stdoutFlushTimer === null) {
+            stdoutFlushTimer = setTimeout(flushStdout, STDOUT_FLUSH_DELAY);
+        }
     } else {
-        $rt_stdoutBuffer += String.fromCharCode(ch);
+        stdoutLineChars.push(ch);
     }
-}
\ No newline at end of file
+}
+
+function flushStdout(force) {
+    if (stdoutFlushTimer !== null) {
+        clearTimeout(stdoutFlushTimer);
+        stdoutFlushTimer = null;
+    }
+    if (stdoutPort === null || (stdoutInFlight >= STDOUT_MAX_IN_FLIGHT && !force) || stdoutLines.length === 0) {
+        return;
+    }
+    stdoutPort.postMessage({ lines: stdoutLines });
+    stdoutLines = [];
+    stdoutInFlight++;
+}
+
+function charsToString(chars) {
+    var result = "";
+    for (var i = 0; i < chars.length; i += 8192) {
+        result += String.fromCharCode.apply(null, chars.slice(i, i + 8192));
+    }
+    return result;
+}